@@ -3,6 +3,10 @@ version = "0.0.1"
 project.extra["PluginName"] = "Replayer"
 project.extra["PluginDescription"] = ""
 
+dependencies {
+    testImplementation(Libraries.junit)
+}
+
 tasks {
     jar {
         manifest {
@@ -0,0 +1,7 @@
+package net.subaru.replayer;
+
+public enum FsyncPolicy {
+    ON_CLOSE,
+    EVERY_N_MESSAGES,
+    INTERVAL
+}
@@ -4,8 +4,6 @@ import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.extern.slf4j.Slf4j;
@@ -27,13 +25,15 @@ public class ProxyServer {
         this.threadFactory = new DefaultThreadFactory("client");
     }
 
-    public void start(int port, ChannelHandler childHandler) throws InterruptedException {
-        this.bossGroup = new NioEventLoopGroup(this.threadFactory);
-        this.workerGroup = new NioEventLoopGroup(this.threadFactory);
+    public void start(int port, ChannelHandler childHandler, boolean preferNativeTransport) throws InterruptedException {
+        Transport transport = Transport.select(preferNativeTransport);
+        log.info("Starting proxy server with {} transport", transport);
+        this.bossGroup = transport.newEventLoopGroup(1, this.threadFactory);
+        this.workerGroup = transport.newEventLoopGroup(0, this.threadFactory);
 
         ServerBootstrap bootstrap = new ServerBootstrap()
                 .group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
+                .channel(transport.getServerChannelClass())
                 .handler(new LoggingHandler())
                 .childHandler(childHandler);
         this.channelFuture = bootstrap
@@ -0,0 +1,6 @@
+package net.subaru.replayer;
+
+public enum RecordingFormat {
+    DIRECTORY,
+    CONTAINER
+}
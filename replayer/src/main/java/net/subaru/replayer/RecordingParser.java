@@ -2,61 +2,242 @@ package net.subaru.replayer;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
+import net.subaru.replayer.format.BlockRecordingData;
+import net.subaru.replayer.format.MessageMeta;
+import net.subaru.replayer.format.PacketIndex;
+import net.subaru.replayer.format.RecordingContainer;
+import net.subaru.replayer.format.RecordingData;
+import net.subaru.replayer.format.SegmentedRecordingData;
 
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
 
-public class RecordingParser {
-    private static final int MESSAGE_META_STRIDE = 12;
-
+public class RecordingParser implements Closeable {
     private final int[] isaacKey;
 
-    private final ByteBuf messagesInput;
+    private final RecordingData messagesInput;
+
+    private final MessageMeta messageMeta;
+
+    private final long[] messageOffsets;
+
+    private final long[] messageTimes;
 
-    private final ByteBuf messagesMetaInput;
+    private final PacketIndex packetIndex;
 
     public static RecordingParser load(Path path) throws IOException {
-        DataInputStream dataInputStream = new DataInputStream(new FileInputStream(path.resolve("isaac.dat").toFile()));
-        int[] isaacKey = new int[4];
-        for (int i = 0; i < isaacKey.length; i++) {
-            isaacKey[i] = dataInputStream.readInt();
+        if (RecordingContainer.isContainer(path) || BlockRecordingData.exists(path)) {
+            // Containers are opened from their footer and block data is decoded on demand either way
+            return map(path);
         }
+
+        int[] isaacKey = readIsaacKey(path);
         ByteBuf messagesInput = Unpooled.wrappedBuffer(Files.readAllBytes(path.resolve("messages.dat")));
         ByteBuf messagesMetaInput = Unpooled.wrappedBuffer(Files.readAllBytes(path.resolve("messages_meta.dat")));
-        return new RecordingParser(isaacKey, messagesInput, messagesMetaInput);
+        return new RecordingParser(isaacKey, SegmentedRecordingData.wrap(messagesInput), messagesMetaInput,
+                PacketIndex.map(path));
+    }
+
+    public static RecordingParser map(Path path) throws IOException {
+        if (RecordingContainer.isContainer(path)) {
+            RecordingContainer container = RecordingContainer.open(path);
+            return new RecordingParser(container.getIsaacKey(), container.getData(), container.getMessageMeta(),
+                    container.getPacketIndex());
+        }
+
+        int[] isaacKey = readIsaacKey(path);
+        ByteBuf messagesMetaInput;
+        try (FileChannel channel = FileChannel.open(path.resolve("messages_meta.dat"), StandardOpenOption.READ)) {
+            messagesMetaInput = Unpooled.wrappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        RecordingData messagesInput = BlockRecordingData.exists(path)
+                ? BlockRecordingData.open(path)
+                : SegmentedRecordingData.map(path.resolve("messages.dat"));
+        return new RecordingParser(isaacKey, messagesInput, messagesMetaInput, PacketIndex.map(path));
+    }
+
+    private static int[] readIsaacKey(Path path) throws IOException {
+        try (DataInputStream dataInputStream = new DataInputStream(new FileInputStream(path.resolve("isaac.dat").toFile()))) {
+            int[] isaacKey = new int[4];
+            for (int i = 0; i < isaacKey.length; i++) {
+                isaacKey[i] = dataInputStream.readInt();
+            }
+            return isaacKey;
+        }
     }
 
     public RecordingParser(int[] isaacKey, ByteBuf messagesInput, ByteBuf messagesMetaInput) {
+        this(isaacKey, SegmentedRecordingData.wrap(messagesInput), messagesMetaInput);
+    }
+
+    public RecordingParser(int[] isaacKey, RecordingData messagesInput, ByteBuf messagesMetaInput) {
+        this(isaacKey, messagesInput, messagesMetaInput, null);
+    }
+
+    public RecordingParser(int[] isaacKey, RecordingData messagesInput, ByteBuf messagesMetaInput,
+                           PacketIndex packetIndex) {
         this.isaacKey = isaacKey;
+        this.packetIndex = packetIndex;
         this.messagesInput = messagesInput;
-        this.messagesMetaInput = messagesMetaInput;
+        this.messageMeta = MessageMeta.wrap(messagesMetaInput);
+        int messageCount = getMessageCount();
+        this.messageOffsets = new long[messageCount + 1];
+        this.messageTimes = new long[messageCount];
+        buildIndex();
+    }
+
+    private void buildIndex() {
+        long firstTimestamp = getMessageCount() > 0 ? getMessageTimeNanos(0) : 0;
+        long time = 0;
+        for (int i = 0; i < messageTimes.length; i++) {
+            messageOffsets[i + 1] = messageOffsets[i] + messageMeta.getLength(i);
+            // Wall clock timestamps in older recordings can step backwards; clamp so the column stays sorted
+            time = Math.max(time, TimeUnit.NANOSECONDS.toMillis(getMessageTimeNanos(i) - firstTimestamp));
+            messageTimes[i] = time;
+        }
     }
 
     public int getMessageCount() {
-        return this.messagesMetaInput.writerIndex() / MESSAGE_META_STRIDE;
+        return this.messageMeta.getMessageCount();
     }
 
     public long getMessageTimestamp(int index) {
-        int offset = index * MESSAGE_META_STRIDE;
-        return this.messagesMetaInput.getLong(offset);
+        return this.messageMeta.getTimestamp(index);
+    }
+
+    /**
+     * Nanoseconds on the recording's timeline. Monotonic for recordings with nanosecond stamps; older
+     * recordings only have wall clock milliseconds.
+     */
+    public long getMessageTimeNanos(int index) {
+        return this.messageMeta.getTimestampNanos(index);
+    }
+
+    /**
+     * Milliseconds from the first message, never decreasing.
+     */
+    public long getMessageTime(int index) {
+        return this.messageTimes[index];
+    }
+
+    /**
+     * Returns the first message at or after the given time from the start, or the message count if there is none.
+     */
+    public int findMessageAtTime(long millisFromStart) {
+        int low = 0;
+        int high = this.messageTimes.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.messageTimes[mid] < millisFromStart) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     public int getMessageLength(int index) {
-        int offset = index * MESSAGE_META_STRIDE;
-        return this.messagesMetaInput.getInt(offset + 8);
+        return (int) (this.messageOffsets[index + 1] - this.messageOffsets[index]);
+    }
+
+    public long getMessageOffset(int index) {
+        return this.messageOffsets[index];
     }
 
-    public byte[] readMessage(int offset, int length) {
+    /**
+     * Returns the message containing the given position in messages.dat.
+     */
+    public int findMessageAtOffset(long offset) {
+        int low = 0;
+        int high = this.messageOffsets.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (this.messageOffsets[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public byte[] readMessage(int index) {
+        return readMessage(getMessageOffset(index), getMessageLength(index));
+    }
+
+    public byte[] readMessage(long offset, int length) {
         byte[] data = new byte[length];
         this.messagesInput.getBytes(offset, data, 0, length);
 
         return data;
     }
 
+    public ByteBuf sliceMessage(int index) {
+        return this.messagesInput.slice(getMessageOffset(index), getMessageLength(index));
+    }
+
+    /**
+     * Returns the message as a region of the recording file, or null if the recording is not mapped from a plain
+     * data file. Block compressed data has to be decoded and can only be sliced.
+     */
+    public FileRegion messageRegion(int index) {
+        return this.messagesInput.region(getMessageOffset(index), getMessageLength(index));
+    }
+
+    /**
+     * Returns the messages from {@code from} up to but excluding {@code to} as a single region, see
+     * {@link #messageRegion}.
+     */
+    public FileRegion messagesRegion(int from, int to) {
+        long offset = getMessageOffset(from);
+        return this.messagesInput.region(offset, (int) (getMessageOffset(to) - offset));
+    }
+
+    public boolean hasFileRegions() {
+        return this.messagesInput.hasFileRegions();
+    }
+
+    /**
+     * Returns the packets with the given opcode that arrived within {@code [from, to)} milliseconds from the first
+     * message, see {@link PacketIndex#query}.
+     */
+    public int[] queryPackets(int opcode, long fromMillis, long toMillis) {
+        if (this.packetIndex == null) {
+            throw new IllegalStateException("Recording has no packet index");
+        }
+        long start = getMessageCount() > 0 ? getMessageTimestamp(0) : 0;
+        // An open ended range is passed as Long.MAX_VALUE, which must not wrap around
+        long to = toMillis > Long.MAX_VALUE - start ? Long.MAX_VALUE : start + toMillis;
+        return this.packetIndex.query(opcode, start + fromMillis, to);
+    }
+
+    /**
+     * Milliseconds from the first message to the arrival of the packet.
+     */
+    public long getPacketTime(int index) {
+        long start = getMessageCount() > 0 ? getMessageTimestamp(0) : 0;
+        return this.packetIndex.getTimestamp(index) - start;
+    }
+
+    public PacketIndex getPacketIndex() {
+        return packetIndex;
+    }
+
     public int[] getIsaacKey() {
         return isaacKey;
     }
+
+    @Override
+    public void close() throws IOException {
+        this.messagesInput.close();
+    }
 }
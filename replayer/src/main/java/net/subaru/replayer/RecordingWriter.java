@@ -1,57 +1,597 @@
 package net.subaru.replayer;
 
-import net.unethicalite.client.Static;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+import lombok.extern.slf4j.Slf4j;
+import net.subaru.replayer.format.BlockCodec;
+import net.subaru.replayer.format.BlockRecordingData;
+import net.subaru.replayer.format.CompactMessageMeta;
+import net.subaru.replayer.format.PacketFramer;
+import net.subaru.replayer.format.PacketIndex;
+import net.subaru.replayer.format.RecordingContainer;
+import net.subaru.replayer.metrics.Metrics;
+import net.subaru.replayer.trace.TraceCategory;
+import net.subaru.replayer.trace.TraceLevel;
+import net.subaru.replayer.trace.Tracer;
 
 import java.io.Closeable;
-import java.io.DataOutputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongSupplier;
 
+/**
+ * Hands frames to a dedicated writer thread through a bounded MPSC queue. The writer thread gathers the
+ * captured buffers into large sequential writes and forces them to disk according to the configured
+ * {@link FsyncPolicy}. Enqueueing never blocks: once the queue is full, frames spill into an overflow queue and
+ * the {@link #setBackpressure backpressure} callbacks ask the producer to stop reading until the writer catches up.
+ * <p>
+ * With a server packet size table the writer also frames the stream into packets once the login messages
+ * have gone by, appending an entry per packet to the {@link PacketIndex}. messages.dat is unchanged either way.
+ * <p>
+ * A path ending in {@link RecordingContainer#EXTENSION} is written as a single file container instead of a
+ * recording directory.
+ * <p>
+ * With a {@link BlockCodec} the data is written as {@link BlockRecordingData} instead of messages.dat. Blocks are
+ * cut between messages once they reach {@link #BLOCK_SIZE} or the data has to be synced, and a block's meta and
+ * packet entries are only written after the block itself.
+ */
+@Slf4j
 public class RecordingWriter implements Closeable {
-    private final FileOutputStream messagesOutput;
-    private final DataOutputStream messageMetaOutput;
-    private final DataOutputStream isaacOutput;
+    private static final int MAX_GATHER_BUFFERS = 1024;
+    private static final int MAX_GATHER_BYTES = 1024 * 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final FileChannel messagesOutput;
+    private final FileChannel messageMetaOutput;
+    private final FileChannel isaacOutput;
+    private final FileChannel packetsOutput;
+    private final FileChannel blockIndexOutput;
+
+    private final FsyncPolicy fsyncPolicy;
+    private final int syncEveryMessages;
+    private final long syncIntervalNanos;
+
+    private final Queue<Frame> queue;
+    private final Queue<Frame> overflow = new ConcurrentLinkedQueue<>();
+    private final int resumeDepth;
+    private final LongSupplier queueDepth;
+    private final Thread writerThread;
+
+    private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER_BUFFERS];
+    private final Frame[] gatheredFrames = new Frame[MAX_GATHER_BUFFERS];
+    private final ByteBuf metaBatch = Unpooled.directBuffer(MAX_GATHER_BUFFERS * CompactMessageMeta.MAX_ENTRY_SIZE);
+    private final CompactMessageMeta.Encoder metaEncoder = new CompactMessageMeta.Encoder();
+    private final ByteBuf packetBatch;
+    private int gatherBufferCount;
+    private int gatheredFrameCount;
+    private long gatheredBytes;
+
+    private volatile boolean running = true;
+    private volatile boolean parked;
+    private volatile boolean paused;
+    private volatile Runnable pauseCallback;
+    private volatile Runnable resumeCallback;
+    private volatile IOException failure;
+    private final CompletableFuture<Void> closed = new CompletableFuture<>();
 
     private boolean isaacWritten;
 
-    public RecordingWriter(Path path) throws FileNotFoundException {
-        this.messagesOutput = new FileOutputStream(path.resolve("messages.dat").toFile(), true);
-        this.messageMetaOutput = new DataOutputStream(new FileOutputStream(path.resolve("messages_meta.dat").toFile(), true));
-        this.isaacOutput = new DataOutputStream(new FileOutputStream(path.resolve("isaac.dat").toFile()));
+    private final int[] packetSizes;
+    private int[] isaacKey;
+    private PacketFramer packetFramer;
+    private long streamPosition;
+    private long dataFrames;
+    private long frameTimestamp;
+
+    private final long epochMillis;
+    private final long epochNanos;
+
+    private final Path container;
+
+    private final BlockCodec blockCodec;
+    private final ByteBuf blockData;
+    private int blockMessages;
+    private final ByteBuffer blockIndexEntry = ByteBuffer.allocate(BlockRecordingData.INDEX_STRIDE);
+    private long blockFileOffset;
+    private int blockFirstMessage;
+
+    private int messagesSinceSync;
+    private long lastSyncTime;
+    private long queueFullStalls;
+
+    public RecordingWriter(Path path) throws IOException {
+        this(path, FsyncPolicy.ON_CLOSE, 0, 0, 4096);
+    }
+
+    public RecordingWriter(Path path, FsyncPolicy fsyncPolicy, int syncEveryMessages, long syncIntervalMillis,
+                           int queueCapacity) throws IOException {
+        this(path, fsyncPolicy, syncEveryMessages, syncIntervalMillis, queueCapacity, null, BlockCodec.NONE);
+    }
+
+    /**
+     * @param packetSizes the server packet size table, or null to skip the packet index
+     * @param blockCodec  the codec for block data, or {@link BlockCodec#NONE} to write a plain messages.dat
+     */
+    public RecordingWriter(Path path, FsyncPolicy fsyncPolicy, int syncEveryMessages, long syncIntervalMillis,
+                           int queueCapacity, int[] packetSizes, BlockCodec blockCodec) throws IOException {
+        this.container = path.getFileName().toString().endsWith(RecordingContainer.EXTENSION) ? path : null;
+        // The meta entries are deltas from the previous entry and stamped against this writer's epoch, so a second
+        // session can't continue an existing recording
+        Path existingMeta = path.resolve("messages_meta.dat");
+        if (this.container == null && Files.exists(existingMeta) && Files.size(existingMeta) > 0) {
+            throw new IOException(path + " already holds a recording");
+        }
+        // Messages are stamped with nanoTime relative to this anchor, so wall clock adjustments can't skew the gaps
+        this.epochMillis = System.currentTimeMillis();
+        this.epochNanos = System.nanoTime();
+        if (this.container != null) {
+            this.messagesOutput = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            RecordingContainer.lockForWriting(this.messagesOutput);
+            RecordingContainer.writeHeader(this.messagesOutput, blockCodec, this.epochMillis);
+            this.isaacOutput = null;
+        } else {
+            this.messagesOutput = FileChannel.open(
+                    path.resolve(blockCodec != BlockCodec.NONE ? BlockRecordingData.DATA_FILE_NAME : "messages.dat"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            this.isaacOutput = FileChannel.open(path.resolve("isaac.dat"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        if (blockCodec != BlockCodec.NONE) {
+            this.blockCodec = blockCodec;
+            this.blockIndexOutput = openSection(path, BlockRecordingData.INDEX_FILE_NAME);
+            this.blockData = Unpooled.buffer(BLOCK_SIZE * 2);
+            this.blockFileOffset = this.messagesOutput.position();
+        } else {
+            this.blockCodec = null;
+            this.blockIndexOutput = null;
+            this.blockData = null;
+        }
+        this.messageMetaOutput = openSection(path, "messages_meta.dat");
+        CompactMessageMeta.Encoder.writeHeader(this.metaBatch, this.epochMillis);
+        this.packetSizes = packetSizes;
+        if (packetSizes != null) {
+            this.packetsOutput = openSection(path, PacketIndex.FILE_NAME);
+            this.packetBatch = Unpooled.directBuffer(MAX_GATHER_BUFFERS * PacketIndex.STRIDE);
+        } else {
+            this.packetsOutput = null;
+            this.packetBatch = null;
+        }
+        this.fsyncPolicy = fsyncPolicy;
+        this.syncEveryMessages = Math.max(1, syncEveryMessages);
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.queue = PlatformDependent.newFixedMpscQueue(queueCapacity);
+        this.resumeDepth = queueCapacity / 2;
+        this.queueDepth = this.queue::size;
+        Metrics.WRITER_QUEUE_DEPTH.bind(this.queueDepth);
+        this.lastSyncTime = System.nanoTime();
+        this.writerThread = new Thread(this::drain, "recording-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Index sections live next to the data in a recording directory. A container gets them in its footer on
+     * close, so until then they are staged beside it.
+     */
+    private Path sectionPath(Path path, String fileName) {
+        return this.container != null ? RecordingContainer.stagedSection(path, fileName) : path.resolve(fileName);
+    }
+
+    private FileChannel openSection(Path path, String fileName) throws IOException {
+        Path section = sectionPath(path, fileName);
+        if (this.container != null) {
+            Files.deleteIfExists(section);
+        }
+        return FileChannel.open(section, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Sets the callbacks run when the queue fills up and once it has drained to half its capacity again. The pause
+     * callback runs on the thread calling {@link #write}, the resume callback on the writer thread.
+     */
+    public void setBackpressure(Runnable pause, Runnable resume) {
+        this.pauseCallback = pause;
+        this.resumeCallback = resume;
     }
 
     public void write(byte[] data) throws IOException {
-        this.messagesOutput.write(data);
+        write(Unpooled.wrappedBuffer(data));
+    }
 
-        Static.getClient().getLogger().info("Writing message: {}", data);
-        long now = System.currentTimeMillis();
-        this.messageMetaOutput.writeLong(now);
-        this.messageMetaOutput.writeInt(data.length);
+    /**
+     * Queues the readable bytes of the buffer for writing. Ownership of one reference is transferred to the
+     * writer, which releases it once the bytes have reached the file.
+     */
+    public void write(ByteBuf data) throws IOException {
+        Tracer.trace(TraceCategory.RECORD, TraceLevel.TRACE, "Writing message, length={}", data.readableBytes());
+        enqueue(new Frame(data, System.nanoTime() - this.epochNanos, null));
     }
 
     public void writeIsaac(int[] key) throws IOException {
-        for (int part : key) {
-            this.isaacOutput.writeInt(part);
-        }
+        enqueue(new Frame(null, 0, key.clone()));
         this.isaacWritten = true;
     }
 
-    public void flush() throws IOException {
-        this.messagesOutput.flush();
-        this.messageMetaOutput.flush();
-        this.isaacOutput.flush();
+    private void enqueue(Frame frame) throws IOException {
+        if (this.failure != null) {
+            frame.release();
+            throw this.failure;
+        }
+        if (!this.running) {
+            frame.release();
+            throw new IOException("Recording writer is closed");
+        }
+
+        // Once anything has spilled over, later frames have to follow it there to keep their order
+        if (!this.overflow.isEmpty() || !this.queue.offer(frame)) {
+            this.overflow.add(frame);
+            if (!this.paused) {
+                this.paused = true;
+                this.queueFullStalls++;
+                Metrics.WRITER_QUEUE_STALLS.increment();
+                Runnable pause = this.pauseCallback;
+                if (pause != null) {
+                    pause.run();
+                }
+            }
+            LockSupport.unpark(this.writerThread);
+        } else if (this.parked) {
+            LockSupport.unpark(this.writerThread);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (this.running || !this.queue.isEmpty() || !this.overflow.isEmpty()) {
+                Frame frame = poll();
+                if (this.paused && this.overflow.isEmpty() && this.queue.size() <= this.resumeDepth) {
+                    this.paused = false;
+                    Runnable resume = this.resumeCallback;
+                    if (resume != null) {
+                        resume.run();
+                    }
+                }
+                if (frame == null) {
+                    flushBatch();
+                    if (this.fsyncPolicy == FsyncPolicy.INTERVAL && System.nanoTime() - this.lastSyncTime >= this.syncIntervalNanos) {
+                        sync();
+                    }
+                    this.parked = true;
+                    if (this.queue.isEmpty() && this.overflow.isEmpty() && this.running) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    this.parked = false;
+                    continue;
+                }
+
+                append(frame);
+            }
+
+            flushBatch();
+            sync();
+        } catch (Throwable t) {
+            log.error("Recording writer failed", t);
+            this.failure = t instanceof IOException ? (IOException) t : new IOException("Recording writer failed", t);
+            releaseGathered();
+            Frame frame;
+            while ((frame = poll()) != null) {
+                frame.release();
+            }
+            Runnable resume = this.resumeCallback;
+            if (this.paused && resume != null) {
+                resume.run();
+            }
+        }
+        finish();
+    }
+
+    private Frame poll() {
+        Frame frame = this.queue.poll();
+        return frame != null ? frame : this.overflow.poll();
+    }
+
+    private void append(Frame frame) throws IOException {
+        if (frame.isaacKey != null) {
+            if (this.container != null) {
+                RecordingContainer.writeIsaacKey(this.messagesOutput, frame.isaacKey);
+            } else {
+                ByteBuffer key = ByteBuffer.allocate(frame.isaacKey.length * Integer.BYTES);
+                for (int part : frame.isaacKey) {
+                    key.putInt(part);
+                }
+                key.flip();
+                writeFully(this.isaacOutput, key);
+            }
+            this.isaacKey = frame.isaacKey;
+            return;
+        }
+
+        if (this.dataFrames++ == PacketFramer.LOGIN_MESSAGES) {
+            startFraming();
+        }
+
+        int length = frame.data.readableBytes();
+        if (this.blockCodec == null) {
+            gather(frame, length);
+        } else {
+            if (this.blockMessages++ == 0) {
+                this.blockFirstMessage = (int) (this.dataFrames - 1);
+            }
+            this.blockData.writeBytes(frame.data, frame.data.readerIndex(), length);
+            this.metaEncoder.encode(this.metaBatch, frame.timestamp, length);
+        }
+
+        if (this.packetFramer != null) {
+            this.frameTimestamp = frame.timestamp;
+            frame.data.forEachByte(this.packetFramer);
+            if (this.packetFramer.isLost()) {
+                log.warn("Lost packet framing at stream position {}, recording the rest without a packet index",
+                        this.packetFramer.getPosition());
+                this.packetFramer = null;
+            }
+        }
+        this.streamPosition += length;
+
+        if (this.blockCodec != null) {
+            // The bytes were copied into the block, so the frame doesn't have to wait for the write
+            frame.release();
+            if (this.blockData.readableBytes() >= BLOCK_SIZE) {
+                flushBlock();
+            }
+        }
+
+        if (this.fsyncPolicy == FsyncPolicy.EVERY_N_MESSAGES && ++this.messagesSinceSync >= this.syncEveryMessages) {
+            flushBatch();
+            sync();
+        }
+    }
+
+    private void gather(Frame frame, int length) throws IOException {
+        int nioBufferCount = frame.data.nioBufferCount();
+        if (this.gatherBufferCount + nioBufferCount > MAX_GATHER_BUFFERS || this.gatheredBytes + length > MAX_GATHER_BYTES) {
+            flushBatch();
+        }
+
+        if (nioBufferCount == 1) {
+            this.gatherBuffers[this.gatherBufferCount++] = frame.data.nioBuffer();
+        } else {
+            for (ByteBuffer buffer : frame.data.nioBuffers()) {
+                this.gatherBuffers[this.gatherBufferCount++] = buffer;
+            }
+        }
+        this.gatheredFrames[this.gatheredFrameCount++] = frame;
+        this.gatheredBytes += length;
+        this.metaEncoder.encode(this.metaBatch, frame.timestamp, length);
+    }
+
+    private void flushBlock() throws IOException {
+        if (this.blockMessages == 0) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int length = this.blockData.readableBytes();
+        byte[] compressed = this.blockCodec.compress(this.blockData.array(),
+                this.blockData.arrayOffset() + this.blockData.readerIndex(), length);
+        writeFully(this.messagesOutput, ByteBuffer.wrap(compressed));
+
+        this.blockIndexEntry.clear();
+        this.blockIndexEntry.putLong(this.blockFileOffset);
+        this.blockIndexEntry.putInt(compressed.length);
+        this.blockIndexEntry.putInt(length);
+        this.blockIndexEntry.putInt(this.blockFirstMessage);
+        this.blockIndexEntry.put((byte) this.blockCodec.getId());
+        this.blockIndexEntry.flip();
+        writeFully(this.blockIndexOutput, this.blockIndexEntry);
+        this.blockFileOffset += compressed.length;
+
+        writeMeta();
+        writePackets();
+        this.blockData.clear();
+        this.blockMessages = 0;
+        Metrics.WRITER_FLUSH.record(System.nanoTime() - start);
+    }
+
+    private void startFraming() {
+        if (this.packetSizes == null) {
+            return;
+        }
+        if (this.isaacKey == null) {
+            log.warn("No ISAAC key by the end of login, recording without a packet index");
+            return;
+        }
+
+        this.packetFramer = new PacketFramer(PacketFramer.serverKey(this.isaacKey), this.packetSizes, this.streamPosition, this::indexPacket);
+    }
+
+    private void indexPacket(long offset, int length, int opcode) {
+        this.packetBatch.writeLong(offset);
+        this.packetBatch.writeInt(length);
+        this.packetBatch.writeShort(opcode);
+        this.packetBatch.writeLong(this.epochMillis + TimeUnit.NANOSECONDS.toMillis(this.frameTimestamp));
+    }
+
+    private void flushBatch() throws IOException {
+        if (this.blockCodec != null) {
+            // Block data only goes out a whole block at a time, see flushBlock
+            return;
+        }
+
+        // Data goes out before meta so a meta entry never points past the end of messages.dat
+        long start = System.nanoTime();
+        boolean flushed = this.gatherBufferCount > 0;
+        if (flushed) {
+            int first = 0;
+            while (first < this.gatherBufferCount) {
+                this.messagesOutput.write(this.gatherBuffers, first, this.gatherBufferCount - first);
+                while (first < this.gatherBufferCount && !this.gatherBuffers[first].hasRemaining()) {
+                    first++;
+                }
+            }
+            releaseGathered();
+        }
+        writeMeta();
+        writePackets();
+        if (flushed) {
+            Metrics.WRITER_FLUSH.record(System.nanoTime() - start);
+        }
+    }
+
+    private void writeMeta() throws IOException {
+        while (this.metaBatch.isReadable()) {
+            this.metaBatch.readBytes(this.messageMetaOutput, this.metaBatch.readableBytes());
+        }
+        this.metaBatch.clear();
+    }
+
+    private void writePackets() throws IOException {
+        if (this.packetBatch != null && this.packetBatch.isReadable()) {
+            while (this.packetBatch.isReadable()) {
+                this.packetBatch.readBytes(this.packetsOutput, this.packetBatch.readableBytes());
+            }
+            this.packetBatch.clear();
+        }
+    }
+
+    private void releaseGathered() {
+        for (int i = 0; i < this.gatheredFrameCount; i++) {
+            this.gatheredFrames[i].release();
+            this.gatheredFrames[i] = null;
+        }
+        for (int i = 0; i < this.gatherBufferCount; i++) {
+            this.gatherBuffers[i] = null;
+        }
+        this.gatheredFrameCount = 0;
+        this.gatherBufferCount = 0;
+        this.gatheredBytes = 0;
+    }
+
+    private void sync() throws IOException {
+        long start = System.nanoTime();
+        if (this.blockCodec != null) {
+            flushBlock();
+            this.blockIndexOutput.force(false);
+        }
+        this.messagesOutput.force(false);
+        this.messageMetaOutput.force(false);
+        if (this.isaacOutput != null) {
+            this.isaacOutput.force(false);
+        }
+        if (this.packetsOutput != null) {
+            this.packetsOutput.force(false);
+        }
+        this.messagesSinceSync = 0;
+        this.lastSyncTime = System.nanoTime();
+        Metrics.WRITER_SYNC.record(this.lastSyncTime - start);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Stops accepting frames. The writer thread drains the queue, forces the data to disk, writes the container
+     * footer and closes the files; the returned future completes once that is done, so the caller never waits on
+     * the disk.
+     */
+    public CompletableFuture<Void> closeAsync() {
+        this.running = false;
+        LockSupport.unpark(this.writerThread);
+        return this.closed;
     }
 
     @Override
     public void close() throws IOException {
-        this.messagesOutput.close();
-        this.messageMetaOutput.close();
-        this.isaacOutput.close();
+        try {
+            closeAsync().join();
+        } catch (CompletionException e) {
+            throw (IOException) e.getCause();
+        }
+    }
+
+    private void finish() {
+        Metrics.WRITER_QUEUE_DEPTH.unbind(this.queueDepth);
+
+        if (this.queueFullStalls > 0) {
+            log.warn("Recording writer queue was full {} times", this.queueFullStalls);
+        }
+
+        try {
+            if (this.container != null && this.failure == null) {
+                RecordingContainer.writeFooter(this.messagesOutput, sectionPath(this.container, "messages_meta.dat"),
+                        this.blockCodec != null ? sectionPath(this.container, BlockRecordingData.INDEX_FILE_NAME) : null,
+                        this.packetsOutput != null ? sectionPath(this.container, PacketIndex.FILE_NAME) : null);
+                this.messagesOutput.force(false);
+            }
+
+            this.messagesOutput.close();
+            this.messageMetaOutput.close();
+            if (this.isaacOutput != null) {
+                this.isaacOutput.close();
+            }
+            if (this.packetsOutput != null) {
+                this.packetsOutput.close();
+            }
+            if (this.blockIndexOutput != null) {
+                this.blockIndexOutput.close();
+            }
+
+            if (this.container != null && this.failure == null) {
+                Files.deleteIfExists(sectionPath(this.container, "messages_meta.dat"));
+                Files.deleteIfExists(sectionPath(this.container, BlockRecordingData.INDEX_FILE_NAME));
+                Files.deleteIfExists(sectionPath(this.container, PacketIndex.FILE_NAME));
+            }
+        } catch (IOException e) {
+            if (this.failure == null) {
+                this.failure = e;
+            }
+        }
+        if (this.packetBatch != null) {
+            this.packetBatch.release();
+        }
+        this.metaBatch.release();
+
+        if (this.failure != null) {
+            this.closed.completeExceptionally(this.failure);
+        } else {
+            this.closed.complete(null);
+        }
     }
 
     public boolean isIsaacWritten() {
         return this.isaacWritten;
     }
+
+    private static final class Frame {
+        private final ByteBuf data;
+        private final long timestamp;
+        private final int[] isaacKey;
+
+        private Frame(ByteBuf data, long timestamp, int[] isaacKey) {
+            this.data = data;
+            this.timestamp = timestamp;
+            this.isaacKey = isaacKey;
+        }
+
+        private void release() {
+            if (this.data != null) {
+                this.data.release();
+            }
+        }
+    }
 }
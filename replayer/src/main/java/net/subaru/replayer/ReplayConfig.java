@@ -3,6 +3,8 @@ package net.subaru.replayer;
 import net.runelite.client.config.Config;
 import net.runelite.client.config.ConfigGroup;
 import net.runelite.client.config.ConfigItem;
+import net.subaru.replayer.format.BlockCodec;
+import net.subaru.replayer.trace.Tracer;
 
 @ConfigGroup("example")
 public interface ReplayConfig extends Config
@@ -16,5 +18,204 @@ public interface ReplayConfig extends Config
 	{
 		return false;
 	}
-}
 
+	@ConfigItem(
+		keyName = "mappedLoading",
+		name = "Memory-mapped loading",
+		description = "Open recordings through memory-mapped files instead of reading them onto the heap"
+	)
+	default boolean mappedLoading()
+	{
+		return true;
+	}
+
+	@ConfigItem(
+		keyName = "streamingPlayback",
+		name = "Streaming playback",
+		description = "Read messages through a bounded read-ahead window instead of preloading the whole recording"
+	)
+	default boolean streamingPlayback()
+	{
+		return true;
+	}
+
+	@ConfigItem(
+		keyName = "fileRegionPlayback",
+		name = "Sendfile playback",
+		description = "Send messages of mapped, uncompressed recordings straight from the file instead of through buffers"
+	)
+	default boolean fileRegionPlayback()
+	{
+		return true;
+	}
+
+	@ConfigItem(
+		keyName = "readAheadMessages",
+		name = "Read-ahead window",
+		description = "Number of messages the streaming prefetcher keeps buffered ahead of playback"
+	)
+	default int readAheadMessages()
+	{
+		return 256;
+	}
+
+	@ConfigItem(
+		keyName = "fsyncPolicy",
+		name = "Fsync policy",
+		description = "When the recording writer forces captured data to disk"
+	)
+	default FsyncPolicy fsyncPolicy()
+	{
+		return FsyncPolicy.INTERVAL;
+	}
+
+	@ConfigItem(
+		keyName = "fsyncEveryMessages",
+		name = "Fsync every N messages",
+		description = "Number of messages between syncs when the fsync policy is EVERY_N_MESSAGES"
+	)
+	default int fsyncEveryMessages()
+	{
+		return 1000;
+	}
+
+	@ConfigItem(
+		keyName = "fsyncIntervalMillis",
+		name = "Fsync interval (ms)",
+		description = "Time between syncs when the fsync policy is INTERVAL"
+	)
+	default int fsyncIntervalMillis()
+	{
+		return 1000;
+	}
+
+	@ConfigItem(
+		keyName = "writerQueueCapacity",
+		name = "Writer queue capacity",
+		description = "Number of captured frames that can be queued for the recording writer thread"
+	)
+	default int writerQueueCapacity()
+	{
+		return 4096;
+	}
+
+	@ConfigItem(
+		keyName = "nativeTransport",
+		name = "Native transport",
+		description = "Use the native epoll transport for the proxy when it is available"
+	)
+	default boolean nativeTransport()
+	{
+		return true;
+	}
+
+	@ConfigItem(
+		keyName = "writeBufferHighWaterMark",
+		name = "Write buffer high water mark",
+		description = "Outbound bytes queued on a proxy leg before reading from the other leg is paused"
+	)
+	default int writeBufferHighWaterMark()
+	{
+		return 64 * 1024;
+	}
+
+	@ConfigItem(
+		keyName = "writeBufferLowWaterMark",
+		name = "Write buffer low water mark",
+		description = "Outbound bytes queued on a proxy leg below which reading from the other leg resumes"
+	)
+	default int writeBufferLowWaterMark()
+	{
+		return 32 * 1024;
+	}
+
+	@ConfigItem(
+		keyName = "maxWritesPerFlush",
+		name = "Max writes per flush",
+		description = "Forwarded chunks a proxy leg may batch before flushing inside a single read loop"
+	)
+	default int maxWritesPerFlush()
+	{
+		return 16;
+	}
+
+	@ConfigItem(
+		keyName = "connectTimeoutMillis",
+		name = "Upstream connect timeout (ms)",
+		description = "How long the record proxy waits for the game server to accept a connection"
+	)
+	default int connectTimeoutMillis()
+	{
+		return 10000;
+	}
+
+	@ConfigItem(
+		keyName = "timingToleranceMillis",
+		name = "Timing tolerance (ms)",
+		description = "How late a replayed message may be before the replay timeline is shifted instead of catching up"
+	)
+	default int timingToleranceMillis()
+	{
+		return 20;
+	}
+
+	@ConfigItem(
+		keyName = "packetCapture",
+		name = "Packet capture",
+		description = "Frame recordings into server packets and write a per-packet index"
+	)
+	default boolean packetCapture()
+	{
+		return false;
+	}
+
+	@ConfigItem(
+		keyName = "packetSizesField",
+		name = "Packet sizes field",
+		description = "Static int[] of server packet sizes in the client, as class.field"
+	)
+	default String packetSizesField()
+	{
+		return "";
+	}
+
+	@ConfigItem(
+		keyName = "recordingCodec",
+		name = "Recording codec",
+		description = "Compress recorded data in blocks with this codec, NONE keeps a plain messages.dat"
+	)
+	default BlockCodec recordingCodec()
+	{
+		return BlockCodec.NONE;
+	}
+
+	@ConfigItem(
+		keyName = "recordingFormat",
+		name = "Recording format",
+		description = "Write recordings as a directory of files or as a single container file"
+	)
+	default RecordingFormat recordingFormat()
+	{
+		return RecordingFormat.DIRECTORY;
+	}
+
+	@ConfigItem(
+		keyName = "traceCategories",
+		name = "Trace categories",
+		description = "Comma separated category=level[/N] entries for replay, record, proxy and packets, e.g. replay=trace/100 records 1 in 100 events"
+	)
+	default String traceCategories()
+	{
+		return "";
+	}
+
+	@ConfigItem(
+		keyName = "traceBufferSize",
+		name = "Trace buffer size",
+		description = "Number of recent trace events kept in memory for a dump"
+	)
+	default int traceBufferSize()
+	{
+		return Tracer.DEFAULT_CAPACITY;
+	}
+}
@@ -14,6 +14,7 @@ import net.runelite.api.packets.PacketWriter;
 import net.runelite.client.callback.ClientThread;
 import net.runelite.client.config.ConfigManager;
 import net.runelite.client.eventbus.Subscribe;
+import net.runelite.client.events.ConfigChanged;
 import net.runelite.client.game.WorldService;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginDescriptor;
@@ -24,10 +25,16 @@ import net.runelite.client.util.WorldUtil;
 import net.runelite.http.api.worlds.World;
 import net.runelite.http.api.worlds.WorldResult;
 import net.runelite.rs.api.RSBufferedNetSocket;
+import net.subaru.replayer.format.PacketIndex;
+import net.subaru.replayer.format.PacketIndexer;
+import net.subaru.replayer.metrics.Metrics;
 import net.subaru.replayer.panel.Panel;
 import net.subaru.replayer.record.RecordClientInitializer;
 import net.subaru.replayer.replay.RecordingReplayer;
 import net.subaru.replayer.replay.ReplayClientInitializer;
+import net.subaru.replayer.trace.TraceCategory;
+import net.subaru.replayer.trace.TraceLevel;
+import net.subaru.replayer.trace.Tracer;
 import net.unethicalite.api.events.LoginStateChanged;
 import net.unethicalite.api.events.PacketSent;
 import net.unethicalite.api.events.ServerPacketReceived;
@@ -42,8 +49,9 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.SocketException;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.util.function.LongSupplier;
 
 @Slf4j
 @PluginDescriptor(
@@ -55,6 +63,7 @@ import java.util.Arrays;
 public class ReplayPlugin extends Plugin
 {
 	private static final int PORT = 43594;
+	private static final int MAX_QUERY_RESULTS = 200;
 
 	@Inject
 	private Client client;
@@ -66,6 +75,7 @@ public class ReplayPlugin extends Plugin
 	private WorldService worldService;
 
 	@Inject
+	@Getter
 	private ReplayConfig config;
 
 	@Inject
@@ -89,6 +99,8 @@ public class ReplayPlugin extends Plugin
 	private ProxyServer proxyServer;
 
 	private int lastWorld = -1;
+	// Kept so shutDown unbinds the same supplier startUp bound
+	private final LongSupplier pendingWrites = this::getClientPendingWrites;
 	public static final File STORM_DIR = new File(System.getProperty("user.home"), ".storm");
 
 	public Path getRecordingPath()
@@ -118,6 +130,9 @@ public class ReplayPlugin extends Plugin
 	protected void startUp() throws Exception
 	{
 		lastWorld = -1;
+		Tracer.configure(config.traceCategories(), config.traceBufferSize());
+		Metrics.REPLAY_PENDING_WRITES.bind(pendingWrites);
+		Metrics.REGISTRY.start(Metrics.JMX_NAME);
 
 		pluginPanel = new Panel(this);
 		BufferedImage panelIcon = ImageUtil.loadImageResource(this.getClass(), "/icon.png");
@@ -155,12 +170,33 @@ public class ReplayPlugin extends Plugin
 	{
 		log.info("Replay plugin stopped!");
 		this.proxyServer.stop();
+		Metrics.REPLAY_PENDING_WRITES.unbind(pendingWrites);
+		Metrics.REGISTRY.stop();
+		if (pluginPanel != null)
+		{
+			pluginPanel.stopMetrics();
+		}
+	}
+
+	private long getClientPendingWrites()
+	{
+		PacketWriter packetWriter = client.getPacketWriter();
+		return packetWriter != null ? packetWriter.getPendingWrites() : 0;
 	}
 
 	@Subscribe
 	public void onPacketSent(PacketSent e)
 	{
-		log.info("client");
+		Tracer.trace(TraceCategory.PACKETS, TraceLevel.DEBUG, "Client packet sent");
+	}
+
+	@Subscribe
+	public void onConfigChanged(ConfigChanged e)
+	{
+		if ("example".equals(e.getGroup()) && e.getKey().startsWith("trace"))
+		{
+			Tracer.configure(config.traceCategories(), config.traceBufferSize());
+		}
 	}
 
 	@Subscribe
@@ -172,14 +208,7 @@ public class ReplayPlugin extends Plugin
 
 	@Subscribe
 	public void onServerPacketReceived(ServerPacketReceived e) throws IOException {
-		byte[] data = Arrays.copyOfRange(e.getPacketBuffer().getPayload(), 0, e.getLength());
-		//log.info("Server Packet received: {}", e.hexDump());
-		RecordingWriter writer = this.recordClientInitializer.getRecordClientHandler().getRecordServerInitializer().getRecordServerHandler().getRecordingWriter();
-
-		//writer.write(data);
-
-		log.info("server");
-
+		Tracer.trace(TraceCategory.PACKETS, TraceLevel.DEBUG, "Server packet received, length={}", e.getLength());
 	}
 
 	public void setRecordMode(boolean isRecording) {
@@ -214,12 +243,12 @@ public class ReplayPlugin extends Plugin
 			if (isRecording)
 			{
 				log.info("Starting record server");
-				proxyServer.start(PORT, recordClientInitializer);
+				proxyServer.start(PORT, recordClientInitializer, config.nativeTransport());
 			}
 			else
 			{
 				log.info("Starting replay server");
-				proxyServer.start(PORT, replayClientInitializer);
+				proxyServer.start(PORT, replayClientInitializer, config.nativeTransport());
 
 				clientThread.invoke(() -> {
 					client.setGameState(GameState.LOGGING_IN);
@@ -265,6 +294,126 @@ public class ReplayPlugin extends Plugin
 		}
 	}
 
+	public void stepBackward() {
+		if (recordingReplayer != null) {
+			recordingReplayer.stepBackward();
+		}
+	}
+
+	public void reconnectReplay() {
+		if (!isProxyServerRunning || isRecording) {
+			return;
+		}
+
+		log.info("Reconnecting client to the replay server");
+		clientThread.invoke(() -> {
+			client.setGameState(GameState.LOGGING_IN);
+		});
+	}
+
+	public void indexRecording() {
+		Path folder = this.recordingFolder;
+		if (folder == null) {
+			log.warn("No recording selected to index");
+			return;
+		}
+
+		if (!Files.isDirectory(folder)) {
+			log.warn("Only recording directories can be indexed, containers get their packet index while recording");
+			return;
+		}
+
+		int[] packetSizes = getServerPacketSizes();
+		if (packetSizes == null) {
+			return;
+		}
+
+		Thread indexer = new Thread(() -> {
+			try {
+				log.info("Indexed {}: {}", folder, new PacketIndexer(folder, packetSizes).index());
+			} catch (IOException e) {
+				log.error("Couldn't index {}", folder, e);
+			} catch (InterruptedException e) {
+				log.info("Indexing {} interrupted", folder);
+			}
+		}, "packet-indexer");
+		indexer.setDaemon(true);
+		indexer.start();
+	}
+
+	public void queryPackets(int opcode, long fromMillis, long toMillis) {
+		Path folder = this.recordingFolder;
+		if (folder == null) {
+			log.warn("No recording selected to query");
+			return;
+		}
+
+		Thread query = new Thread(() -> {
+			try (RecordingParser recordingParser = RecordingParser.map(folder)) {
+				String result;
+				if (recordingParser.getPacketIndex() == null) {
+					result = folder.getFileName() + " has no packet index, index it first";
+				} else {
+					int[] packets = recordingParser.queryPackets(opcode, fromMillis, toMillis);
+					StringBuilder text = new StringBuilder();
+					text.append(String.format("%d packets with opcode %d%n", packets.length, opcode));
+					PacketIndex packetIndex = recordingParser.getPacketIndex();
+					for (int i = 0; i < Math.min(packets.length, MAX_QUERY_RESULTS); i++) {
+						int packet = packets[i];
+						text.append(String.format("%10.3f s  offset %d, %d bytes%n", recordingParser.getPacketTime(packet) / 1000.0,
+							packetIndex.getOffset(packet), packetIndex.getLength(packet)));
+					}
+					if (packets.length > MAX_QUERY_RESULTS) {
+						text.append(String.format("... %d more%n", packets.length - MAX_QUERY_RESULTS));
+					}
+					result = text.toString();
+				}
+				log.info("{}", result);
+				if (pluginPanel != null) {
+					pluginPanel.showPacketQuery(result);
+				}
+			} catch (IOException e) {
+				log.error("Couldn't query {}", folder, e);
+			}
+		}, "packet-query");
+		query.setDaemon(true);
+		query.start();
+	}
+
+	public void dumpTrace() {
+		Thread dumper = new Thread(() -> {
+			try {
+				Path traces = STORM_DIR.toPath().resolve("traces");
+				Files.createDirectories(traces);
+				Path file = traces.resolve("trace-" + System.currentTimeMillis() + ".log");
+				log.info("Dumped {} trace events to {}", Tracer.dump(file), file);
+			} catch (IOException e) {
+				log.error("Couldn't dump trace events", e);
+			}
+		}, "trace-dump");
+		dumper.setDaemon(true);
+		dumper.start();
+	}
+
+	public void showTimingReport() {
+		if (recordingReplayer == null) {
+			log.warn("No replay to report on");
+			return;
+		}
+
+		recordingReplayer.getTimingReport().addListener(future -> {
+			if (!future.isSuccess()) {
+				log.warn("Couldn't build the timing report", future.cause());
+				return;
+			}
+			String report = (String) future.getNow();
+			log.info("{}", report);
+			if (pluginPanel != null) {
+				pluginPanel.showTimingReport(report);
+			}
+		});
+	}
+
 	public void setReplaySpeed(double speed) {
 		if (recordingReplayer != null) {
 			recordingReplayer.setSpeedMultiplier(speed);
@@ -353,6 +502,22 @@ public class ReplayPlugin extends Plugin
 		}
 	}
 
+	public int[] getServerPacketSizes() {
+		String packetSizesField = this.config.packetSizesField();
+		int separator = packetSizesField.lastIndexOf('.');
+		if (separator <= 0) {
+			log.warn("No server packet sizes field configured");
+			return null;
+		}
+
+		try {
+			return getStaticField(packetSizesField.substring(0, separator), packetSizesField.substring(separator + 1));
+		} catch (Exception e) {
+			log.error("Couldn't get server packet sizes", e);
+			return null;
+		}
+	}
+
 	public Object getNetWriter() throws NoSuchFieldException, ClassNotFoundException, IllegalAccessException {
 		return getStaticField("client", "iq");
 	}
@@ -0,0 +1,95 @@
+package net.subaru.replayer.format;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the blocks of a {@link BlockRecordingData} file. Every block records the id of the codec that
+ * wrote it, so new codecs can be added without breaking existing recordings.
+ */
+public enum BlockCodec {
+    NONE(0) {
+        @Override
+        public byte[] compress(byte[] data, int offset, int length) {
+            return Arrays.copyOfRange(data, offset, offset + length);
+        }
+
+        @Override
+        public void decompress(byte[] compressed, int compressedLength, byte[] dst) throws IOException {
+            if (compressedLength != dst.length) {
+                throw new IOException("Stored block is " + compressedLength + " bytes, expected " + dst.length);
+            }
+            System.arraycopy(compressed, 0, dst, 0, compressedLength);
+        }
+    },
+    DEFLATE(1) {
+        private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(Deflater::new);
+        private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+        @Override
+        public byte[] compress(byte[] data, int offset, int length) {
+            Deflater deflater = this.deflaters.get();
+            deflater.reset();
+            deflater.setInput(data, offset, length);
+            deflater.finish();
+
+            byte[] compressed = new byte[length + (length >>> 8) + 64];
+            int compressedLength = 0;
+            while (!deflater.finished()) {
+                if (compressedLength == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                compressedLength += deflater.deflate(compressed, compressedLength, compressed.length - compressedLength);
+            }
+            return Arrays.copyOf(compressed, compressedLength);
+        }
+
+        @Override
+        public void decompress(byte[] compressed, int compressedLength, byte[] dst) throws IOException {
+            Inflater inflater = this.inflaters.get();
+            inflater.reset();
+            inflater.setInput(compressed, 0, compressedLength);
+            try {
+                int length = 0;
+                while (length < dst.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(dst, length, dst.length - length);
+                    if (inflated == 0 && inflater.needsInput()) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != dst.length) {
+                    throw new IOException("Block inflated to " + length + " bytes, expected " + dst.length);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt block", e);
+            }
+        }
+    };
+
+    private final int id;
+
+    BlockCodec(int id) {
+        this.id = id;
+    }
+
+    public abstract byte[] compress(byte[] data, int offset, int length);
+
+    public abstract void decompress(byte[] compressed, int compressedLength, byte[] dst) throws IOException;
+
+    public int getId() {
+        return id;
+    }
+
+    public static BlockCodec forId(int id) throws IOException {
+        for (BlockCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IOException("Unknown block codec: " + id);
+    }
+}
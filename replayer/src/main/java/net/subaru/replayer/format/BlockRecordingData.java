@@ -0,0 +1,155 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recording data stored as independently compressed blocks. The writer only cuts blocks between messages, so a
+ * message always lies within one block and a slice of it is a view of the decoded block. Only the blocks that are
+ * read get decoded, and the most recently used ones are kept for seeking back and forth.
+ */
+public class BlockRecordingData implements RecordingData {
+    public static final String DATA_FILE_NAME = "blocks.dat";
+    public static final String INDEX_FILE_NAME = "blocks_index.dat";
+    public static final int INDEX_STRIDE = 21;
+    private static final int CACHED_BLOCKS = 16;
+
+    private final FileChannel fileChannel;
+    private final long[] fileOffsets;
+    private final int[] compressedLengths;
+    private final long[] dataOffsets;
+    private final BlockCodec[] codecs;
+
+    private final Map<Integer, byte[]> decodedBlocks = new LinkedHashMap<Integer, byte[]>(CACHED_BLOCKS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > CACHED_BLOCKS;
+        }
+    };
+
+    private BlockRecordingData(FileChannel fileChannel, ByteBuf index) throws IOException {
+        int blockCount = index.readableBytes() / INDEX_STRIDE;
+        this.fileChannel = fileChannel;
+        this.fileOffsets = new long[blockCount];
+        this.compressedLengths = new int[blockCount];
+        this.dataOffsets = new long[blockCount + 1];
+        this.codecs = new BlockCodec[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            this.fileOffsets[i] = index.readLong();
+            this.compressedLengths[i] = index.readInt();
+            this.dataOffsets[i + 1] = this.dataOffsets[i] + index.readInt();
+            // The first message column is for tools reading the index directly, the parser locates messages by offset
+            index.skipBytes(Integer.BYTES);
+            this.codecs[i] = BlockCodec.forId(index.readByte());
+        }
+    }
+
+    public static boolean exists(Path path) {
+        return Files.exists(path.resolve(DATA_FILE_NAME));
+    }
+
+    public static BlockRecordingData open(Path path) throws IOException {
+        ByteBuf index = Unpooled.wrappedBuffer(Files.readAllBytes(path.resolve(INDEX_FILE_NAME)));
+        FileChannel channel = FileChannel.open(path.resolve(DATA_FILE_NAME), StandardOpenOption.READ);
+        try {
+            return open(channel, index);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads blocks from the channel at the offsets in the index. The data takes ownership of the channel and closes it.
+     */
+    public static BlockRecordingData open(FileChannel channel, ByteBuf index) throws IOException {
+        return new BlockRecordingData(channel, index);
+    }
+
+    @Override
+    public long size() {
+        return this.dataOffsets[this.dataOffsets.length - 1];
+    }
+
+    @Override
+    public void getBytes(long offset, byte[] dst, int dstIndex, int length) {
+        while (length > 0) {
+            int block = findBlock(offset);
+            int blockOffset = (int) (offset - this.dataOffsets[block]);
+            byte[] decoded = decode(block);
+            int chunk = Math.min(length, decoded.length - blockOffset);
+            System.arraycopy(decoded, blockOffset, dst, dstIndex, chunk);
+            offset += chunk;
+            dstIndex += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public ByteBuf slice(long offset, int length) {
+        int block = findBlock(offset);
+        int blockOffset = (int) (offset - this.dataOffsets[block]);
+        byte[] decoded = decode(block);
+        if (blockOffset + length <= decoded.length) {
+            // Evicted blocks are only dropped from the cache, so the view stays valid
+            return Unpooled.wrappedBuffer(decoded, blockOffset, length);
+        }
+
+        byte[] data = new byte[length];
+        getBytes(offset, data, 0, length);
+        return Unpooled.wrappedBuffer(data);
+    }
+
+    private int findBlock(long offset) {
+        int low = 0;
+        int high = this.fileOffsets.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (this.dataOffsets[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private synchronized byte[] decode(int block) {
+        byte[] decoded = this.decodedBlocks.get(block);
+        if (decoded != null) {
+            return decoded;
+        }
+
+        try {
+            ByteBuffer compressed = ByteBuffer.allocate(this.compressedLengths[block]);
+            long position = this.fileOffsets[block];
+            while (compressed.hasRemaining()) {
+                if (this.fileChannel.read(compressed, position + compressed.position()) < 0) {
+                    throw new IOException("Block " + block + " is truncated");
+                }
+            }
+            decoded = new byte[(int) (this.dataOffsets[block + 1] - this.dataOffsets[block])];
+            this.codecs[block].decompress(compressed.array(), compressed.capacity(), decoded);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        this.decodedBlocks.put(block, decoded);
+        return decoded;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.fileChannel.close();
+    }
+}
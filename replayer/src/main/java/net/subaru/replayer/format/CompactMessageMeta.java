@@ -0,0 +1,204 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The compact meta layouts. After a magic and version header every entry is a zigzag varint timestamp delta
+ * followed by a varint length, except that every {@link #SYNC_INTERVAL}th entry stores its timestamp in full. A
+ * lookup decodes forward from the nearest sync point, and each thread keeps a cursor so sequential reads stay O(1).
+ * <p>
+ * v2 stores wall clock milliseconds. v3 stores monotonic {@link System#nanoTime()} stamps relative to the start of
+ * the recording, and its header adds the wall clock time of that start.
+ */
+public class CompactMessageMeta implements MessageMeta {
+    public static final int MAGIC = 0x524D4554;
+    public static final int VERSION_MILLIS = 2;
+    public static final int VERSION_NANOS = 3;
+    public static final int SYNC_INTERVAL = 256;
+    public static final int MAX_ENTRY_SIZE = 15;
+
+    private final ByteBuf entries;
+    private final boolean nanos;
+    private final long epochMillis;
+    private final int messageCount;
+    private final int[] syncPositions;
+    private final ThreadLocal<Cursor> cursors = ThreadLocal.withInitial(Cursor::new);
+
+    public CompactMessageMeta(ByteBuf entries) {
+        int version = entries.getByte(4);
+        int position;
+        if (version == VERSION_MILLIS) {
+            this.nanos = false;
+            this.epochMillis = 0;
+            position = 5;
+        } else if (version == VERSION_NANOS) {
+            this.nanos = true;
+            this.epochMillis = entries.writerIndex() >= 13 ? entries.getLong(5) : 0;
+            position = 13;
+        } else {
+            throw new IllegalArgumentException("Unsupported meta version: " + version);
+        }
+        this.entries = entries;
+
+        int end = entries.writerIndex();
+        int count = 0;
+        int[] syncs = new int[16];
+        while (position < end) {
+            boolean sync = count % SYNC_INTERVAL == 0;
+            // A crash can leave half an entry at the end, which is dropped
+            int next = skipEntry(position, sync, end);
+            if (next < 0) {
+                break;
+            }
+            if (sync) {
+                if (count / SYNC_INTERVAL == syncs.length) {
+                    syncs = Arrays.copyOf(syncs, syncs.length * 2);
+                }
+                syncs[count / SYNC_INTERVAL] = position;
+            }
+            position = next;
+            count++;
+        }
+        this.messageCount = count;
+        this.syncPositions = Arrays.copyOf(syncs, (count + SYNC_INTERVAL - 1) / SYNC_INTERVAL);
+    }
+
+    public static boolean isCompact(ByteBuf buffer) {
+        return buffer.writerIndex() >= 5 && buffer.getInt(0) == MAGIC;
+    }
+
+    @Override
+    public int getMessageCount() {
+        return this.messageCount;
+    }
+
+    @Override
+    public long getTimestamp(int index) {
+        long timestamp = seek(index).timestamp;
+        return this.nanos ? this.epochMillis + TimeUnit.NANOSECONDS.toMillis(timestamp) : timestamp;
+    }
+
+    @Override
+    public long getTimestampNanos(int index) {
+        long timestamp = seek(index).timestamp;
+        return this.nanos ? timestamp : TimeUnit.MILLISECONDS.toNanos(timestamp);
+    }
+
+    @Override
+    public int getLength(int index) {
+        return seek(index).length;
+    }
+
+    private Cursor seek(int index) {
+        if (index < 0 || index >= this.messageCount) {
+            throw new IndexOutOfBoundsException("Message " + index + " of " + this.messageCount);
+        }
+
+        Cursor cursor = this.cursors.get();
+        if (cursor.index == index) {
+            return cursor;
+        }
+        if (cursor.index < 0 || cursor.index > index || index - cursor.index >= SYNC_INTERVAL) {
+            int sync = index / SYNC_INTERVAL;
+            cursor.index = sync * SYNC_INTERVAL - 1;
+            cursor.next = this.syncPositions[sync];
+        }
+        while (cursor.index < index) {
+            decodeNext(cursor);
+        }
+        return cursor;
+    }
+
+    private void decodeNext(Cursor cursor) {
+        int index = cursor.index + 1;
+        int position = cursor.next;
+        if (index % SYNC_INTERVAL == 0) {
+            cursor.timestamp = this.entries.getLong(position);
+            position += 8;
+        } else {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = this.entries.getByte(position++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            cursor.timestamp += (delta >>> 1) ^ -(delta & 1);
+        }
+
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = this.entries.getByte(position++);
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+
+        cursor.length = length;
+        cursor.next = position;
+        cursor.index = index;
+    }
+
+    private int skipEntry(int position, boolean sync, int end) {
+        if (sync) {
+            position += 8;
+        } else {
+            position = skipVarint(position, end);
+        }
+        return position < 0 ? -1 : skipVarint(position, end);
+    }
+
+    private int skipVarint(int position, int end) {
+        while (position < end) {
+            if (this.entries.getByte(position++) >= 0) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Cursor {
+        private int index = -1;
+        private int next;
+        private long timestamp;
+        private int length;
+    }
+
+    /**
+     * Encodes entries into the v3 layout. Entries must be written in order, starting right after the header.
+     */
+    public static final class Encoder {
+        private long previousTimestamp;
+        private long count;
+
+        public static void writeHeader(ByteBuf out, long epochMillis) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION_NANOS);
+            out.writeLong(epochMillis);
+        }
+
+        public void encode(ByteBuf out, long timestamp, int length) {
+            if (this.count++ % SYNC_INTERVAL == 0) {
+                out.writeLong(timestamp);
+            } else {
+                long delta = timestamp - this.previousTimestamp;
+                writeVarint(out, (delta << 1) ^ (delta >> 63));
+            }
+            writeVarint(out, length);
+            this.previousTimestamp = timestamp;
+        }
+
+        private static void writeVarint(ByteBuf out, long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.writeByte((int) value);
+        }
+    }
+}
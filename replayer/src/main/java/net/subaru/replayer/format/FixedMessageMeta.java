@@ -0,0 +1,38 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The v1 meta layout: a fixed 12 byte entry per message holding the timestamp and length.
+ */
+public class FixedMessageMeta implements MessageMeta {
+    public static final int STRIDE = 12;
+
+    private final ByteBuf entries;
+
+    public FixedMessageMeta(ByteBuf entries) {
+        this.entries = entries;
+    }
+
+    @Override
+    public int getMessageCount() {
+        return this.entries.writerIndex() / STRIDE;
+    }
+
+    @Override
+    public long getTimestamp(int index) {
+        return this.entries.getLong(index * STRIDE);
+    }
+
+    @Override
+    public long getTimestampNanos(int index) {
+        return TimeUnit.MILLISECONDS.toNanos(getTimestamp(index));
+    }
+
+    @Override
+    public int getLength(int index) {
+        return this.entries.getInt(index * STRIDE + 8);
+    }
+}
@@ -0,0 +1,108 @@
+package net.subaru.replayer.format;
+
+import java.util.Arrays;
+
+/**
+ * The client's ISAAC keystream, used to recover opcodes from a captured server stream. Seeded with the
+ * server key (the client key plus 50), it yields the same sequence the client uses to decode incoming opcodes.
+ */
+public class IsaacCipher {
+    private static final int SIZE = 256;
+    private static final int MASK = (SIZE - 1) << 2;
+    private static final int GOLDEN_RATIO = 0x9e3779b9;
+
+    private final int[] results = new int[SIZE];
+    private final int[] memory = new int[SIZE];
+    private int count;
+    private int accumulator;
+    private int last;
+    private int counter;
+
+    public IsaacCipher(int[] seed) {
+        System.arraycopy(seed, 0, this.results, 0, seed.length);
+        init();
+    }
+
+    public int nextInt() {
+        if (this.count-- == 0) {
+            isaac();
+            this.count = SIZE - 1;
+        }
+        return this.results[this.count];
+    }
+
+    private void isaac() {
+        this.last += ++this.counter;
+        for (int i = 0; i < SIZE; i++) {
+            int x = this.memory[i];
+            switch (i & 3) {
+                case 0:
+                    this.accumulator ^= this.accumulator << 13;
+                    break;
+                case 1:
+                    this.accumulator ^= this.accumulator >>> 6;
+                    break;
+                case 2:
+                    this.accumulator ^= this.accumulator << 2;
+                    break;
+                default:
+                    this.accumulator ^= this.accumulator >>> 16;
+                    break;
+            }
+            this.accumulator += this.memory[(i + SIZE / 2) & (SIZE - 1)];
+            int y = this.memory[(x & MASK) >> 2] + this.accumulator + this.last;
+            this.memory[i] = y;
+            this.last = this.memory[((y >> 8) & MASK) >> 2] + x;
+            this.results[i] = this.last;
+        }
+    }
+
+    private void init() {
+        int[] mix = new int[8];
+        Arrays.fill(mix, GOLDEN_RATIO);
+        for (int i = 0; i < 4; i++) {
+            mix(mix);
+        }
+
+        for (int pass = 0; pass < 2; pass++) {
+            int[] source = pass == 0 ? this.results : this.memory;
+            for (int i = 0; i < SIZE; i += 8) {
+                for (int j = 0; j < 8; j++) {
+                    mix[j] += source[i + j];
+                }
+                mix(mix);
+                System.arraycopy(mix, 0, this.memory, i, 8);
+            }
+        }
+
+        isaac();
+        this.count = SIZE;
+    }
+
+    private static void mix(int[] s) {
+        s[0] ^= s[1] << 11;
+        s[3] += s[0];
+        s[1] += s[2];
+        s[1] ^= s[2] >>> 2;
+        s[4] += s[1];
+        s[2] += s[3];
+        s[2] ^= s[3] << 8;
+        s[5] += s[2];
+        s[3] += s[4];
+        s[3] ^= s[4] >>> 16;
+        s[6] += s[3];
+        s[4] += s[5];
+        s[4] ^= s[5] << 10;
+        s[7] += s[4];
+        s[5] += s[6];
+        s[5] ^= s[6] >>> 4;
+        s[0] += s[5];
+        s[6] += s[7];
+        s[6] ^= s[7] << 8;
+        s[1] += s[6];
+        s[7] += s[0];
+        s[7] ^= s[0] >>> 9;
+        s[2] += s[7];
+        s[0] += s[1];
+    }
+}
@@ -0,0 +1,30 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * The timestamp and length of every recorded message, as stored in messages_meta.dat.
+ */
+public interface MessageMeta {
+    int getMessageCount();
+
+    /**
+     * Wall clock time the message was received, in milliseconds since the Unix epoch.
+     */
+    long getTimestamp(int index);
+
+    /**
+     * Time the message was received on the recording's own timeline, in nanoseconds. Only the differences
+     * between messages are meaningful.
+     */
+    long getTimestampNanos(int index);
+
+    int getLength(int index);
+
+    /**
+     * Picks the decoder for the given file contents. v1 files have no header and start with a raw timestamp.
+     */
+    static MessageMeta wrap(ByteBuf buffer) {
+        return CompactMessageMeta.isCompact(buffer) ? new CompactMessageMeta(buffer) : new FixedMessageMeta(buffer);
+    }
+}
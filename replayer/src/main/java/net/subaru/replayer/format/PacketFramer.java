@@ -0,0 +1,171 @@
+package net.subaru.replayer.format;
+
+import io.netty.util.ByteProcessor;
+
+/**
+ * Splits the server stream into packets as the bytes go by. Opcodes are recovered with the server ISAAC
+ * keystream and sizes come from the client's server packet size table, where -1 and -2 mark packets with a
+ * one or two byte length prefix. Once an opcode isn't in the table the framing can't be recovered, so the
+ * framer stops reporting packets.
+ * <p>
+ * The framer can be restarted at a packet boundary by skipping the keystream values consumed before it.
+ */
+public class PacketFramer implements ByteProcessor {
+    /**
+     * The login responses at the start of a recording, which aren't ISAAC framed packets.
+     */
+    public static final int LOGIN_MESSAGES = 2;
+
+    private static final int SERVER_KEY_OFFSET = 50;
+
+    public interface Listener {
+        void packet(long offset, int length, int opcode);
+    }
+
+    private static final int VAR_BYTE = -1;
+    private static final int VAR_SHORT = -2;
+
+    private enum State {
+        OPCODE, OPCODE_EXTENDED, SIZE, SIZE_SHORT, PAYLOAD, LOST
+    }
+
+    private final IsaacCipher cipher;
+    private final int[] packetSizes;
+    private final Listener listener;
+
+    private State state = State.OPCODE;
+    private long position;
+    private long packetStart;
+    private int opcode;
+    private int remaining;
+    private long isaacConsumed;
+    private long boundary;
+    private long boundaryIsaacConsumed;
+
+    public PacketFramer(int[] serverKey, int[] packetSizes, long startPosition, Listener listener) {
+        this(serverKey, packetSizes, startPosition, 0, listener);
+    }
+
+    public PacketFramer(int[] serverKey, int[] packetSizes, long startPosition, long isaacConsumed, Listener listener) {
+        this.cipher = new IsaacCipher(serverKey);
+        this.packetSizes = packetSizes;
+        this.position = startPosition;
+        this.boundary = startPosition;
+        this.listener = listener;
+        for (long i = 0; i < isaacConsumed; i++) {
+            nextIsaac();
+        }
+        this.boundaryIsaacConsumed = isaacConsumed;
+    }
+
+    /**
+     * Returns the key the server seeds its ISAAC cipher with for the given client key.
+     */
+    public static int[] serverKey(int[] clientKey) {
+        int[] serverKey = new int[clientKey.length];
+        for (int i = 0; i < serverKey.length; i++) {
+            serverKey[i] = clientKey[i] + SERVER_KEY_OFFSET;
+        }
+        return serverKey;
+    }
+
+    public boolean isLost() {
+        return this.state == State.LOST;
+    }
+
+    public long getPosition() {
+        return this.position;
+    }
+
+    /**
+     * Stream position just past the last complete packet.
+     */
+    public long getBoundary() {
+        return this.boundary;
+    }
+
+    /**
+     * Number of keystream values consumed by the packets before {@link #getBoundary()}.
+     */
+    public long getBoundaryIsaacConsumed() {
+        return this.boundaryIsaacConsumed;
+    }
+
+    @Override
+    public boolean process(byte value) {
+        int b = value & 0xFF;
+        switch (this.state) {
+            case OPCODE:
+                this.packetStart = this.position;
+                this.opcode = (b - nextIsaac()) & 0xFF;
+                if (this.opcode < 128) {
+                    opcodeComplete();
+                } else {
+                    this.state = State.OPCODE_EXTENDED;
+                }
+                break;
+            case OPCODE_EXTENDED:
+                this.opcode = ((this.opcode - 128) << 8) + ((b - nextIsaac()) & 0xFF);
+                opcodeComplete();
+                break;
+            case SIZE:
+                this.remaining |= b;
+                payloadStarted();
+                break;
+            case SIZE_SHORT:
+                this.remaining = b << 8;
+                this.state = State.SIZE;
+                break;
+            case PAYLOAD:
+                if (--this.remaining == 0) {
+                    packetComplete();
+                }
+                break;
+            case LOST:
+                return false;
+        }
+        this.position++;
+        return true;
+    }
+
+    private void opcodeComplete() {
+        if (this.opcode >= this.packetSizes.length) {
+            this.state = State.LOST;
+            return;
+        }
+
+        int size = this.packetSizes[this.opcode];
+        if (size == VAR_BYTE) {
+            this.remaining = 0;
+            this.state = State.SIZE;
+        } else if (size == VAR_SHORT) {
+            this.state = State.SIZE_SHORT;
+        } else if (size >= 0) {
+            this.remaining = size;
+            payloadStarted();
+        } else {
+            this.state = State.LOST;
+        }
+    }
+
+    private void payloadStarted() {
+        if (this.remaining == 0) {
+            packetComplete();
+        } else {
+            this.state = State.PAYLOAD;
+        }
+    }
+
+    private void packetComplete() {
+        // Called on the packet's last byte, which hasn't been counted in the position yet
+        this.listener.packet(this.packetStart, (int) (this.position + 1 - this.packetStart), this.opcode);
+        this.state = State.OPCODE;
+        this.boundary = this.position + 1;
+        this.boundaryIsaacConsumed = this.isaacConsumed;
+    }
+
+    private int nextIsaac() {
+        this.isaacConsumed++;
+        return this.cipher.nextInt();
+    }
+}
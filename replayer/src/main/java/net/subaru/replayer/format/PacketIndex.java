@@ -0,0 +1,126 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Per-packet index written by packet-aligned capture. Each entry locates one whole server packet (opcode,
+ * size and payload, still encrypted as captured) in messages.dat along with its decoded opcode and the time
+ * its last byte arrived.
+ * <p>
+ * Queries narrow the time range with a binary search over the entries and then walk a per-opcode list of
+ * packet indexes, built on first use, so they never rescan the stream or the whole index.
+ */
+public class PacketIndex {
+    public static final String FILE_NAME = "packets.dat";
+    public static final int STRIDE = 22;
+    private static final int MAX_OPCODES = 1 << 16;
+    private static final int[] NO_PACKETS = new int[0];
+
+    private final ByteBuf entries;
+
+    private int[][] packetsByOpcode;
+
+    public PacketIndex(ByteBuf entries) {
+        this.entries = entries;
+    }
+
+    public static PacketIndex map(Path path) throws IOException {
+        Path file = path.resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new PacketIndex(Unpooled.wrappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+        }
+    }
+
+    public int getPacketCount() {
+        return entries.writerIndex() / STRIDE;
+    }
+
+    public long getOffset(int index) {
+        return entries.getLong(index * STRIDE);
+    }
+
+    public int getLength(int index) {
+        return entries.getInt(index * STRIDE + 8);
+    }
+
+    public int getOpcode(int index) {
+        return entries.getUnsignedShort(index * STRIDE + 12);
+    }
+
+    public long getTimestamp(int index) {
+        return entries.getLong(index * STRIDE + 14);
+    }
+
+    /**
+     * Returns the first packet at or after the given timestamp, or the packet count if there is none.
+     */
+    public int findPacketAtTime(long timestamp) {
+        int low = 0;
+        int high = getPacketCount();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getTimestamp(mid) < timestamp) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the indexes of every packet with the given opcode whose timestamp is within {@code [from, to)}.
+     */
+    public int[] query(int opcode, long from, long to) {
+        int[] packets = getPacketsByOpcode(opcode);
+        int first = lowerBound(packets, findPacketAtTime(from));
+        int last = lowerBound(packets, findPacketAtTime(to));
+        return Arrays.copyOfRange(packets, first, Math.max(first, last));
+    }
+
+    private synchronized int[] getPacketsByOpcode(int opcode) {
+        if (this.packetsByOpcode == null) {
+            int packetCount = getPacketCount();
+            int[] counts = new int[MAX_OPCODES];
+            for (int i = 0; i < packetCount; i++) {
+                counts[getOpcode(i)]++;
+            }
+            int[][] packetsByOpcode = new int[MAX_OPCODES][];
+            for (int i = 0; i < MAX_OPCODES; i++) {
+                packetsByOpcode[i] = counts[i] == 0 ? NO_PACKETS : new int[counts[i]];
+                counts[i] = 0;
+            }
+            for (int i = 0; i < packetCount; i++) {
+                int packetOpcode = getOpcode(i);
+                packetsByOpcode[packetOpcode][counts[packetOpcode]++] = i;
+            }
+            this.packetsByOpcode = packetsByOpcode;
+        }
+        return opcode >= 0 && opcode < MAX_OPCODES ? this.packetsByOpcode[opcode] : NO_PACKETS;
+    }
+
+    private static int lowerBound(int[] values, int key) {
+        int index = Arrays.binarySearch(values, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Returns the next packet with the given opcode starting from {@code from}, or -1 if there is none.
+     */
+    public int nextPacket(int from, int opcode) {
+        int[] packets = getPacketsByOpcode(opcode);
+        int next = lowerBound(packets, from);
+        return next < packets.length ? packets[next] : -1;
+    }
+}
@@ -0,0 +1,296 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.subaru.replayer.RecordingParser;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Builds the {@link PacketIndex} for a recording captured without packet capture. The ISAAC keystream makes
+ * framing strictly sequential, so instead of splitting the file the work is pipelined: a reader thread streams
+ * the recorded data in large chunks, the calling thread frames them, and a writer thread appends the index entries
+ * and checkpoints its progress. An interrupted run picks up from the last checkpoint.
+ * <p>
+ * The entries are built in a staging file next to packets.dat and only moved into place once every recorded byte
+ * has been framed, so a replay never sees a partial index. A recording cut off in the middle of a packet still gets
+ * its index; the progress then stays at the start of that packet.
+ */
+@Slf4j
+public class PacketIndexer {
+    public static final String PROGRESS_FILE_NAME = "packets.progress";
+    public static final String STAGING_FILE_NAME = PacketIndex.FILE_NAME + ".part";
+    public static final String LOCK_FILE_NAME = "packets.lock";
+
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int PIPELINE_DEPTH = 4;
+    private static final ByteBuffer END_OF_CHUNKS = ByteBuffer.allocate(0);
+    private static final Batch END_OF_BATCHES = new Batch(null, null);
+
+    private final Path path;
+    private final int[] packetSizes;
+
+    private final BlockingQueue<ByteBuffer> filledChunks = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+    private final BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(PIPELINE_DEPTH);
+
+    private volatile IOException failure;
+    private boolean exhausted;
+
+    public PacketIndexer(Path path, int[] packetSizes) {
+        this.path = path;
+        this.packetSizes = packetSizes;
+    }
+
+    /**
+     * Indexes the recording from its last checkpoint to the end of messages.dat and returns the final progress.
+     * Fails if another indexer, in this process or another, is already working on the recording.
+     */
+    public Progress index() throws IOException, InterruptedException {
+        // Left in place: deleting it could let two indexers lock different files
+        try (FileChannel lockChannel = FileChannel.open(this.path.resolve(LOCK_FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = tryLock(lockChannel)) {
+            if (lock == null) {
+                throw new IOException(this.path + " is already being indexed");
+            }
+            return indexLocked();
+        }
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by an indexer in this JVM
+            return null;
+        }
+    }
+
+    private Progress indexLocked() throws IOException, InterruptedException {
+        Path progressFile = this.path.resolve(PROGRESS_FILE_NAME);
+        Path stagingFile = this.path.resolve(STAGING_FILE_NAME);
+        Progress progress = Progress.read(progressFile);
+        if (progress != null && !Files.exists(stagingFile) && Files.exists(this.path.resolve(PacketIndex.FILE_NAME))) {
+            // Already published, and a recording directory doesn't grow once it is closed
+            return progress;
+        }
+
+        Progress last;
+        long end;
+        try (RecordingParser recordingParser = RecordingParser.map(this.path)) {
+            int messageCount = recordingParser.getMessageCount();
+            end = recordingParser.getMessageOffset(messageCount);
+
+            // A checkpoint without its staged entries can't be resumed, so the framing starts over
+            if (progress == null || !Files.exists(stagingFile) && !progress.isLost() && progress.getPosition() < end) {
+                long firstPacket = messageCount > PacketFramer.LOGIN_MESSAGES ? recordingParser.getMessageOffset(PacketFramer.LOGIN_MESSAGES) : end;
+                progress = new Progress(firstPacket, 0, 0, false);
+            }
+
+            if (progress.isLost() || progress.getPosition() >= end) {
+                last = progress;
+            } else {
+                try (FileChannel packetsOutput = FileChannel.open(stagingFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    last = index(recordingParser, packetsOutput, progressFile, progress, end);
+                }
+            }
+        }
+
+        // Also picks up entries left staged by a run that stopped between its last checkpoint and the move
+        if (last.isLost() || this.exhausted || last.getPosition() >= end) {
+            publish(stagingFile);
+        }
+        return last;
+    }
+
+    private Progress index(RecordingParser recordingParser, FileChannel packetsOutput, Path progressFile,
+                           Progress progress, long end) throws IOException, InterruptedException {
+        // Entries written after the last checkpoint are rewritten, so drop them
+        packetsOutput.truncate(progress.getPackets() * PacketIndex.STRIDE);
+        packetsOutput.position(packetsOutput.size());
+
+        log.info("Indexing {} from position {} of {}", this.path, progress.getPosition(), end);
+        long start = progress.getPosition();
+        Thread reader = new Thread(() -> read(recordingParser, start, end), "packet-index-reader");
+        Thread writer = new Thread(() -> write(packetsOutput, progressFile), "packet-index-writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+
+        Progress last;
+        try {
+            last = frame(recordingParser, progress);
+        } finally {
+            reader.interrupt();
+            this.batches.put(END_OF_BATCHES);
+            writer.join();
+        }
+
+        if (this.failure != null) {
+            throw this.failure;
+        }
+        return last;
+    }
+
+    private void publish(Path stagingFile) throws IOException {
+        if (Files.exists(stagingFile)) {
+            Files.move(stagingFile, this.path.resolve(PacketIndex.FILE_NAME), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private Progress frame(RecordingParser recordingParser, Progress progress) throws InterruptedException {
+        int[] messageCursor = {recordingParser.findMessageAtOffset(progress.getPosition())};
+        ByteBuf[] entries = {Unpooled.buffer()};
+        long[] packets = {progress.getPackets()};
+        PacketFramer packetFramer = new PacketFramer(PacketFramer.serverKey(recordingParser.getIsaacKey()), this.packetSizes, progress.getPosition(),
+                progress.getIsaacConsumed(), (offset, length, opcode) -> {
+                    // Packets arrive in stream order, so the message holding the last byte only ever moves forward
+                    long lastByte = offset + length - 1;
+                    while (recordingParser.getMessageOffset(messageCursor[0] + 1) <= lastByte) {
+                        messageCursor[0]++;
+                    }
+                    entries[0].writeLong(offset);
+                    entries[0].writeInt(length);
+                    entries[0].writeShort(opcode);
+                    entries[0].writeLong(recordingParser.getMessageTimestamp(messageCursor[0]));
+                    packets[0]++;
+                });
+
+        Progress last = progress;
+        while (this.failure == null) {
+            ByteBuffer chunk = this.filledChunks.take();
+            if (chunk == END_OF_CHUNKS) {
+                // Anything after the last boundary is a packet the recording cut off
+                this.exhausted = this.failure == null;
+                break;
+            }
+            Unpooled.wrappedBuffer(chunk).forEachByte(packetFramer);
+
+            last = new Progress(packetFramer.getBoundary(), packets[0], packetFramer.getBoundaryIsaacConsumed(),
+                    packetFramer.isLost());
+            this.batches.put(new Batch(entries[0], last));
+            entries[0] = Unpooled.buffer();
+
+            if (packetFramer.isLost()) {
+                log.warn("Lost packet framing in {} at position {}", this.path, packetFramer.getPosition());
+                break;
+            }
+        }
+        return last;
+    }
+
+    private void read(RecordingParser recordingParser, long position, long end) {
+        // Reading through the parser works for both plain and block data, and faults the pages in ahead of the framer
+        try {
+            while (position < end && this.failure == null) {
+                int length = (int) Math.min(CHUNK_SIZE, end - position);
+                this.filledChunks.put(ByteBuffer.wrap(recordingParser.readMessage(position, length)));
+                position += length;
+            }
+        } catch (UncheckedIOException e) {
+            this.failure = e.getCause();
+        } catch (InterruptedException e) {
+            // Keep the flag so the end marker below can't block once the framer has stopped taking chunks
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            this.failure = new IOException("Couldn't read " + this.path + " at position " + position, t);
+        } finally {
+            // The framer may be waiting on the next chunk, so it has to be told the stream ended however it ended
+            try {
+                this.filledChunks.put(END_OF_CHUNKS);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    private void write(FileChannel packetsOutput, Path progressFile) {
+        try {
+            Batch batch;
+            while ((batch = this.batches.take()) != END_OF_BATCHES) {
+                // Keep draining after a failure so the framer never blocks on a full queue
+                if (this.failure != null) {
+                    continue;
+                }
+                try {
+                    while (batch.entries.isReadable()) {
+                        batch.entries.readBytes(packetsOutput, batch.entries.readableBytes());
+                    }
+                    // The entries must be durable before the checkpoint that counts them
+                    packetsOutput.force(false);
+                    batch.progress.write(progressFile);
+                } catch (IOException e) {
+                    this.failure = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Batch {
+        private final ByteBuf entries;
+        private final Progress progress;
+
+        private Batch(ByteBuf entries, Progress progress) {
+            this.entries = entries;
+            this.progress = progress;
+        }
+    }
+
+    @Getter
+    public static final class Progress {
+        private final long position;
+        private final long packets;
+        private final long isaacConsumed;
+        private final boolean lost;
+
+        public Progress(long position, long packets, long isaacConsumed, boolean lost) {
+            this.position = position;
+            this.packets = packets;
+            this.isaacConsumed = isaacConsumed;
+            this.lost = lost;
+        }
+
+        public static Progress read(Path file) throws IOException {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            try (DataInputStream input = new DataInputStream(Files.newInputStream(file))) {
+                return new Progress(input.readLong(), input.readLong(), input.readLong(), input.readBoolean());
+            }
+        }
+
+        private void write(Path file) throws IOException {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(temp))) {
+                output.writeLong(this.position);
+                output.writeLong(this.packets);
+                output.writeLong(this.isaacConsumed);
+                output.writeBoolean(this.lost);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("position=%d, packets=%d, lost=%b", position, packets, lost);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A recording in a single file. A fixed size header holds the format version, codec, ISAAC key and start time,
+ * followed by the append-only data region (plain or {@link BlockRecordingData} blocks) and a footer written on
+ * close with the message meta, block index and packet index. The header points at the footer, so opening a
+ * recording reads the header and footer and maps the data region.
+ * <pre>
+ *  0  int   magic
+ *  4  short version
+ *  6  byte  codec id
+ *  7  byte  flags
+ *  8  int[4] ISAAC key, written in place once the client has it
+ * 24  long  start time, wall clock milliseconds
+ * 32  long  footer offset, 0 until the recording is closed
+ * </pre>
+ * Each footer section is an int length followed by the section in its standalone file layout. Until the footer is
+ * written the sections are staged in files beside the recording. A writer holds {@link #lockForWriting a lock} on
+ * the file while it is open. A recording without a footer and without that lock was never closed, so its footer is
+ * rebuilt from the staged sections when it is opened. One that is still being written is opened read-only from them.
+ */
+@Getter
+public class RecordingContainer {
+    public static final String EXTENSION = ".rec";
+    public static final int MAGIC = 0x52524543;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+
+    private static final int ISAAC_OFFSET = 8;
+    private static final int FOOTER_OFFSET = 32;
+    private static final int FLAG_ISAAC = 1;
+    // Past any data, so holding it doesn't stop readers on platforms with mandatory locking
+    private static final long WRITER_LOCK_POSITION = Long.MAX_VALUE - 1;
+
+    private final int[] isaacKey;
+    private final long startTimeMillis;
+    private final BlockCodec codec;
+    private final RecordingData data;
+    private final ByteBuf messageMeta;
+    private final PacketIndex packetIndex;
+
+    private RecordingContainer(int[] isaacKey, long startTimeMillis, BlockCodec codec, RecordingData data,
+                               ByteBuf messageMeta, PacketIndex packetIndex) {
+        this.isaacKey = isaacKey;
+        this.startTimeMillis = startTimeMillis;
+        this.codec = codec;
+        this.data = data;
+        this.messageMeta = messageMeta;
+        this.packetIndex = packetIndex;
+    }
+
+    public static boolean isContainer(Path path) {
+        return Files.isRegularFile(path);
+    }
+
+    public static RecordingContainer open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + " is not a recording");
+            }
+            int version = header.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported recording version: " + version);
+            }
+            BlockCodec codec = BlockCodec.forId(header.get());
+            int flags = header.get();
+            int[] isaacKey = new int[4];
+            for (int i = 0; i < isaacKey.length; i++) {
+                isaacKey[i] = header.getInt();
+            }
+            if ((flags & FLAG_ISAAC) == 0) {
+                throw new IOException(path + " has no ISAAC key");
+            }
+            long startTimeMillis = header.getLong();
+            long footerOffset = header.getLong();
+            ByteBuf messageMeta;
+            ByteBuf blockIndex;
+            ByteBuf packets;
+            long dataEnd;
+            if (footerOffset != 0) {
+                ByteBuffer footer = ByteBuffer.allocate((int) (channel.size() - footerOffset));
+                readFully(channel, footer, footerOffset);
+                footer.flip();
+                messageMeta = readSection(footer);
+                blockIndex = readSection(footer);
+                packets = readSection(footer);
+                dataEnd = footerOffset;
+            } else if (recover(path)) {
+                channel.close();
+                return open(path);
+            } else {
+                // Still being written: everything up to now, with the sections as far as the writer has staged them
+                dataEnd = channel.size();
+                messageMeta = readStagedSection(path, "messages_meta.dat");
+                blockIndex = readStagedSection(path, BlockRecordingData.INDEX_FILE_NAME);
+                packets = readStagedSection(path, PacketIndex.FILE_NAME);
+            }
+
+            RecordingData data = codec == BlockCodec.NONE
+                    ? SegmentedRecordingData.map(channel, HEADER_SIZE, dataEnd - HEADER_SIZE)
+                    : BlockRecordingData.open(channel, blockIndex);
+            return new RecordingContainer(isaacKey, startTimeMillis, codec, data, messageMeta,
+                    packets.isReadable() ? new PacketIndex(packets) : null);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static Path stagedSection(Path path, String fileName) {
+        return path.resolveSibling(path.getFileName() + "." + fileName + ".part");
+    }
+
+    private static ByteBuf readStagedSection(Path path, String fileName) throws IOException {
+        Path section = stagedSection(path, fileName);
+        return Files.exists(section) ? Unpooled.wrappedBuffer(Files.readAllBytes(section)) : Unpooled.EMPTY_BUFFER;
+    }
+
+    /**
+     * Taken by the writer for as long as the recording is open; closing the channel releases it.
+     */
+    public static FileLock lockForWriting(FileChannel channel) throws IOException {
+        return channel.lock(WRITER_LOCK_POSITION, 1, false);
+    }
+
+    /**
+     * Appends a footer built from the staged sections of a recording that was not closed and returns true, or returns
+     * false without touching the file if a writer still holds it. Data written after the last staged meta entry stays
+     * in the data region but isn't part of any message.
+     */
+    private static boolean recover(Path path) throws IOException {
+        Path messageMeta = stagedSection(path, "messages_meta.dat");
+        Path blockIndex = stagedSection(path, BlockRecordingData.INDEX_FILE_NAME);
+        Path packets = stagedSection(path, PacketIndex.FILE_NAME);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            FileLock lock;
+            try {
+                lock = channel.tryLock(WRITER_LOCK_POSITION, 1, false);
+            } catch (OverlappingFileLockException e) {
+                // Held by a writer in this JVM
+                return false;
+            }
+            if (lock == null) {
+                return false;
+            }
+
+            // Another opener may have recovered it while this one waited for the lock
+            ByteBuffer footerOffset = ByteBuffer.allocate(Long.BYTES);
+            readFully(channel, footerOffset, FOOTER_OFFSET);
+            footerOffset.flip();
+            if (footerOffset.getLong() == 0) {
+                if (!Files.exists(messageMeta)) {
+                    throw new IOException(path + " has no footer, the recording was not closed and its meta is gone");
+                }
+                channel.position(channel.size());
+                writeFooter(channel, messageMeta, blockIndex, packets);
+                channel.force(false);
+            }
+        }
+        Files.deleteIfExists(messageMeta);
+        Files.deleteIfExists(blockIndex);
+        Files.deleteIfExists(packets);
+        return true;
+    }
+
+    /**
+     * Writes the header of a new recording and leaves the channel positioned at the start of the data region.
+     */
+    public static void writeHeader(FileChannel channel, BlockCodec codec, long startTimeMillis) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort((short) VERSION);
+        header.put((byte) codec.getId());
+        header.put((byte) 0);
+        header.position(24);
+        header.putLong(startTimeMillis);
+        header.putLong(0);
+        header.clear();
+        writeFully(channel, header, 0);
+        channel.position(HEADER_SIZE);
+    }
+
+    public static void writeIsaacKey(FileChannel channel, int[] isaacKey) throws IOException {
+        ByteBuffer key = ByteBuffer.allocate(isaacKey.length * Integer.BYTES);
+        for (int part : isaacKey) {
+            key.putInt(part);
+        }
+        key.flip();
+        writeFully(channel, key, ISAAC_OFFSET);
+        writeFully(channel, ByteBuffer.wrap(new byte[]{FLAG_ISAAC}), 7);
+    }
+
+    /**
+     * Appends the footer at the channel's position from the given section files and points the header at it.
+     */
+    public static void writeFooter(FileChannel channel, Path messageMeta, Path blockIndex, Path packets) throws IOException {
+        long footerOffset = channel.position();
+        for (Path section : new Path[]{messageMeta, blockIndex, packets}) {
+            long length = section != null && Files.exists(section) ? Files.size(section) : 0;
+            ByteBuffer sectionLength = ByteBuffer.allocate(Integer.BYTES).putInt((int) length);
+            sectionLength.flip();
+            while (sectionLength.hasRemaining()) {
+                channel.write(sectionLength);
+            }
+            if (length > 0) {
+                try (FileChannel input = FileChannel.open(section, StandardOpenOption.READ)) {
+                    long transferred = 0;
+                    while (transferred < length) {
+                        transferred += input.transferTo(transferred, length - transferred, channel);
+                    }
+                }
+            }
+        }
+        // The footer has to be on disk before the header points at it
+        channel.force(false);
+        ByteBuffer offset = ByteBuffer.allocate(Long.BYTES).putLong(footerOffset);
+        offset.flip();
+        writeFully(channel, offset, FOOTER_OFFSET);
+    }
+
+    private static ByteBuf readSection(ByteBuffer footer) {
+        int length = footer.getInt();
+        ByteBuffer section = footer.slice();
+        section.limit(length);
+        footer.position(footer.position() + length);
+        return Unpooled.wrappedBuffer(section);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Recording is truncated");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
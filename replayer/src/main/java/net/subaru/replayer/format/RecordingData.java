@@ -0,0 +1,33 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+
+import java.io.Closeable;
+
+public interface RecordingData extends Closeable {
+    long size();
+
+    void getBytes(long offset, byte[] dst, int dstIndex, int length);
+
+    /**
+     * Returns a view of the given range without copying when the range lies in a single segment.
+     * The returned buffer is not retained; callers must retain it if it outlives this data.
+     */
+    ByteBuf slice(long offset, int length);
+
+    /**
+     * Returns whether {@link #region} can serve ranges of this data, which needs the data stored as-is in a file.
+     */
+    default boolean hasFileRegions() {
+        return false;
+    }
+
+    /**
+     * Returns the given range as a region of the backing file so it can be sent with sendfile, or null when the
+     * data is not stored as-is in a file.
+     */
+    default FileRegion region(long offset, int length) {
+        return null;
+    }
+}
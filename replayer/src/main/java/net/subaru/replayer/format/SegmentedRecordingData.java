@@ -0,0 +1,121 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Recording data split into fixed size segments so files larger than 2 GB can be addressed with long offsets.
+ * Mapped segments are only faulted in by the OS once they are touched.
+ */
+public class SegmentedRecordingData implements RecordingData {
+    public static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+    private final ByteBuf[] segments;
+    private final long size;
+    private final FileChannel fileChannel;
+    private final long filePosition;
+
+    private SegmentedRecordingData(ByteBuf[] segments, long size, FileChannel fileChannel, long filePosition) {
+        this.segments = segments;
+        this.size = size;
+        this.fileChannel = fileChannel;
+        this.filePosition = filePosition;
+    }
+
+    /**
+     * Wraps loaded data, split into segment sized views so offsets past the first segment resolve like mapped ones.
+     */
+    public static SegmentedRecordingData wrap(ByteBuf buffer) {
+        int size = buffer.writerIndex();
+        int segmentCount = Math.max(1, (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT));
+        ByteBuf[] segments = new ByteBuf[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long offset = (long) i << SEGMENT_SHIFT;
+            segments[i] = buffer.slice((int) offset, (int) Math.min(SEGMENT_SIZE, size - offset));
+        }
+        return new SegmentedRecordingData(segments, size, null, 0);
+    }
+
+    public static SegmentedRecordingData map(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return map(channel, 0, channel.size());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps a region of the channel. The data takes ownership of the channel and closes it.
+     */
+    public static SegmentedRecordingData map(FileChannel channel, long position, long size) throws IOException {
+        int segmentCount = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        ByteBuf[] segments = new ByteBuf[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long offset = (long) i << SEGMENT_SHIFT;
+            long length = Math.min(SEGMENT_SIZE, size - offset);
+            segments[i] = Unpooled.wrappedBuffer(channel.map(FileChannel.MapMode.READ_ONLY, position + offset, length));
+        }
+        return new SegmentedRecordingData(segments, size, channel, position);
+    }
+
+    @Override
+    public long size() {
+        return this.size;
+    }
+
+    @Override
+    public void getBytes(long offset, byte[] dst, int dstIndex, int length) {
+        while (length > 0) {
+            ByteBuf segment = this.segments[(int) (offset >>> SEGMENT_SHIFT)];
+            int segmentOffset = (int) (offset & SEGMENT_MASK);
+            int chunk = Math.min(length, segment.writerIndex() - segmentOffset);
+            segment.getBytes(segmentOffset, dst, dstIndex, chunk);
+            offset += chunk;
+            dstIndex += chunk;
+            length -= chunk;
+        }
+    }
+
+    @Override
+    public ByteBuf slice(long offset, int length) {
+        ByteBuf segment = this.segments[(int) (offset >>> SEGMENT_SHIFT)];
+        int segmentOffset = (int) (offset & SEGMENT_MASK);
+        if (segmentOffset + length <= segment.writerIndex()) {
+            return segment.slice(segmentOffset, length);
+        }
+
+        byte[] data = new byte[length];
+        getBytes(offset, data, 0, length);
+        return Unpooled.wrappedBuffer(data);
+    }
+
+    @Override
+    public boolean hasFileRegions() {
+        return this.fileChannel != null;
+    }
+
+    @Override
+    public FileRegion region(long offset, int length) {
+        if (this.fileChannel == null) {
+            return null;
+        }
+        return new SharedFileRegion(this.fileChannel, this.filePosition + offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.fileChannel != null) {
+            this.fileChannel.close();
+        }
+    }
+}
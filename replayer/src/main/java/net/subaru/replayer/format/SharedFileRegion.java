@@ -0,0 +1,19 @@
+package net.subaru.replayer.format;
+
+import io.netty.channel.DefaultFileRegion;
+
+import java.nio.channels.FileChannel;
+
+/**
+ * A region of a recording's file channel. Many regions share the channel, so releasing one must not close it.
+ */
+public class SharedFileRegion extends DefaultFileRegion {
+    public SharedFileRegion(FileChannel file, long position, long count) {
+        super(file, position, count);
+    }
+
+    @Override
+    protected void deallocate() {
+        // The channel is owned by the recording data and closed with it
+    }
+}
@@ -0,0 +1,77 @@
+package net.subaru.replayer.format;
+
+import net.subaru.replayer.RecordingParser;
+
+import java.util.Arrays;
+
+/**
+ * Maps game ticks to the message that starts them. Messages are raw TCP reads, so tick boundaries are
+ * inferred from the timestamps: the server flushes each tick as a burst, so a quiet gap between reads, or a
+ * burst running longer than one tick, starts a new tick. Gaps spanning several tick lengths yield empty ticks.
+ */
+public class TickIndex {
+    public static final long TICK_MILLIS = 600;
+    private static final long BURST_GAP_MILLIS = 200;
+
+    private final int[] tickStartMessages;
+
+    private TickIndex(int[] tickStartMessages) {
+        this.tickStartMessages = tickStartMessages;
+    }
+
+    public static TickIndex build(RecordingParser recordingParser, int firstMessage) {
+        int messageCount = recordingParser.getMessageCount();
+        if (messageCount <= firstMessage) {
+            return new TickIndex(new int[0]);
+        }
+
+        int[] starts = new int[Math.max(16, (messageCount - firstMessage) / 4)];
+        int tickCount = 0;
+        starts[tickCount++] = firstMessage;
+
+        long tickStart = recordingParser.getMessageTimestamp(firstMessage);
+        long previous = tickStart;
+        for (int i = firstMessage + 1; i < messageCount; i++) {
+            long timestamp = recordingParser.getMessageTimestamp(i);
+            long sinceTickStart = timestamp - tickStart;
+            if (timestamp - previous >= BURST_GAP_MILLIS || sinceTickStart >= TICK_MILLIS) {
+                long ticks = Math.max(1, Math.round((double) sinceTickStart / TICK_MILLIS));
+                for (long t = 0; t < ticks; t++) {
+                    if (tickCount == starts.length) {
+                        starts = Arrays.copyOf(starts, tickCount * 2);
+                    }
+                    starts[tickCount++] = i;
+                }
+                tickStart = timestamp;
+            }
+            previous = timestamp;
+        }
+
+        return new TickIndex(Arrays.copyOf(starts, tickCount));
+    }
+
+    public int getTickCount() {
+        return tickStartMessages.length;
+    }
+
+    public int getMessageIndex(int tick) {
+        return tickStartMessages[tick];
+    }
+
+    /**
+     * Returns the tick the given message belongs to, or -1 if it precedes the first tick.
+     */
+    public int getTick(int messageIndex) {
+        int low = 0;
+        int high = tickStartMessages.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (tickStartMessages[mid] <= messageIndex) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+}
@@ -0,0 +1,37 @@
+package net.subaru.replayer.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A striped total, cheap to update from many threads. The registry samples it once a second for its rate.
+ */
+public class Counter {
+    private final LongAdder total = new LongAdder();
+    private long lastTotal;
+    private volatile double rate;
+
+    public void increment() {
+        total.increment();
+    }
+
+    public void add(long amount) {
+        total.add(amount);
+    }
+
+    public long get() {
+        return total.sum();
+    }
+
+    /**
+     * Per second over the last sampling interval.
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    void sample(long elapsedNanos) {
+        long current = total.sum();
+        rate = (current - lastTotal) * 1e9 / elapsedNanos;
+        lastTotal = current;
+    }
+}
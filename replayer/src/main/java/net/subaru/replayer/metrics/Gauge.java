@@ -0,0 +1,31 @@
+package net.subaru.replayer.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A current value, either set by its owner or read from a bound supplier when the gauge is read.
+ */
+public class Gauge {
+    private volatile long value;
+    private volatile LongSupplier supplier;
+
+    public void set(long value) {
+        this.value = value;
+    }
+
+    public void bind(LongSupplier supplier) {
+        this.supplier = supplier;
+    }
+
+    public void unbind(LongSupplier supplier) {
+        if (this.supplier == supplier) {
+            this.supplier = null;
+            this.value = 0;
+        }
+    }
+
+    public long get() {
+        LongSupplier current = supplier;
+        return current != null ? current.getAsLong() : value;
+    }
+}
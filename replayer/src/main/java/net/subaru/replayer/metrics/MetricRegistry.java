@@ -0,0 +1,105 @@
+package net.subaru.replayer.metrics;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Named metrics, sorted by name. Metrics are looked up once and kept in fields, so updates never touch the
+ * registry. While started, counter rates are sampled every second and the registry is published over JMX.
+ */
+@Slf4j
+public class MetricRegistry {
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+
+    private ScheduledExecutorService sampler;
+    private ObjectName objectName;
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public Gauge gauge(String name) {
+        return gauges.computeIfAbsent(name, key -> new Gauge());
+    }
+
+    public Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    public Map<String, Counter> getCounters() {
+        return counters;
+    }
+
+    public Map<String, Gauge> getGauges() {
+        return gauges;
+    }
+
+    public Map<String, Histogram> getHistograms() {
+        return histograms;
+    }
+
+    public synchronized void start(String jmxName) {
+        if (sampler != null) {
+            return;
+        }
+
+        sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(new Runnable() {
+            private long lastSample = System.nanoTime();
+
+            @Override
+            public void run() {
+                long now = System.nanoTime();
+                for (Counter counter : counters.values()) {
+                    counter.sample(now - lastSample);
+                }
+                lastSample = now;
+            }
+        }, SAMPLE_INTERVAL_NANOS, SAMPLE_INTERVAL_NANOS, TimeUnit.NANOSECONDS);
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName(jmxName);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(new MetricsMBean(this), objectName);
+            }
+        } catch (JMException e) {
+            log.warn("Couldn't register metrics as {}", jmxName, e);
+            objectName = null;
+        }
+    }
+
+    public synchronized void stop() {
+        if (sampler == null) {
+            return;
+        }
+
+        sampler.shutdownNow();
+        sampler = null;
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                log.warn("Couldn't unregister metrics {}", objectName, e);
+            }
+            objectName = null;
+        }
+    }
+}
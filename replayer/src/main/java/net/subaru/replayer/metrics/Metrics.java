@@ -0,0 +1,28 @@
+package net.subaru.replayer.metrics;
+
+/**
+ * The plugin's metrics. Durations are in nanoseconds.
+ */
+public final class Metrics {
+    public static final String JMX_NAME = "net.subaru.replayer:type=Metrics";
+    public static final MetricRegistry REGISTRY = new MetricRegistry();
+
+    public static final Counter PROXY_CLIENT_MESSAGES = REGISTRY.counter("proxy.client.messages");
+    public static final Counter PROXY_CLIENT_BYTES = REGISTRY.counter("proxy.client.bytes");
+    public static final Counter PROXY_SERVER_MESSAGES = REGISTRY.counter("proxy.server.messages");
+    public static final Counter PROXY_SERVER_BYTES = REGISTRY.counter("proxy.server.bytes");
+
+    public static final Gauge WRITER_QUEUE_DEPTH = REGISTRY.gauge("writer.queueDepth");
+    public static final Counter WRITER_QUEUE_STALLS = REGISTRY.counter("writer.queueStalls");
+    public static final Histogram WRITER_FLUSH = REGISTRY.histogram("writer.flushNanos");
+    public static final Histogram WRITER_SYNC = REGISTRY.histogram("writer.syncNanos");
+
+    public static final Counter REPLAY_MESSAGES = REGISTRY.counter("replay.messages");
+    public static final Counter REPLAY_BYTES = REGISTRY.counter("replay.bytes");
+    public static final Histogram REPLAY_DRIFT = REGISTRY.histogram("replay.driftNanos");
+    public static final Counter REPLAY_DRIFT_CORRECTIONS = REGISTRY.counter("replay.driftCorrections");
+    public static final Gauge REPLAY_PENDING_WRITES = REGISTRY.gauge("replay.pendingWrites");
+
+    private Metrics() {
+    }
+}
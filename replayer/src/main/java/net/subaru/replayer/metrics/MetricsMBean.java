@@ -0,0 +1,92 @@
+package net.subaru.replayer.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Publishes every metric of a registry as read-only attributes: counters as {@code name.count} and
+ * {@code name.rate}, gauges under their name and histograms as their count, mean, percentiles and max. The
+ * attribute list is rebuilt on each request, so metrics registered later show up too.
+ */
+class MetricsMBean implements DynamicMBean {
+    private final MetricRegistry registry;
+
+    MetricsMBean(MetricRegistry registry) {
+        this.registry = registry;
+    }
+
+    private Map<String, Supplier<Object>> attributes() {
+        Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+        registry.getCounters().forEach((name, counter) -> {
+            attributes.put(name + ".count", counter::get);
+            attributes.put(name + ".rate", counter::getRate);
+        });
+        registry.getGauges().forEach((name, gauge) -> attributes.put(name, gauge::get));
+        registry.getHistograms().forEach((name, histogram) -> {
+            attributes.put(name + ".count", histogram::getCount);
+            attributes.put(name + ".mean", histogram::getMean);
+            attributes.put(name + ".p50", () -> histogram.getPercentile(50));
+            attributes.put(name + ".p99", () -> histogram.getPercentile(99));
+            attributes.put(name + ".p999", () -> histogram.getPercentile(99.9));
+            attributes.put(name + ".max", histogram::getMax);
+        });
+        return attributes;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Supplier<Object> value = attributes().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value.get();
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        Map<String, Supplier<Object>> attributes = attributes();
+        AttributeList list = new AttributeList();
+        for (String name : names) {
+            Supplier<Object> value = attributes.get(name);
+            if (value != null) {
+                list.add(new Attribute(name, value.get()));
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> infos = new ArrayList<>();
+        attributes().forEach((name, value) -> {
+            infos.add(new MBeanAttributeInfo(name, value.get().getClass().getName(), name, true, false, false));
+        });
+        return new MBeanInfo(getClass().getName(), "Replayer metrics",
+                infos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
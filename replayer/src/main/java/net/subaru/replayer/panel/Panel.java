@@ -4,6 +4,7 @@ import net.runelite.client.ui.ColorScheme;
 import net.runelite.client.ui.PluginPanel;
 import net.runelite.client.ui.components.FlatTextField;
 import net.subaru.replayer.ReplayPlugin;
+import net.subaru.replayer.metrics.Metrics;
 import net.subaru.replayer.replay.RecordingReplayer;
 import net.unethicalite.client.Static;
 
@@ -17,16 +18,30 @@ public class Panel extends PluginPanel {
     private ReplayPlugin plugin;
     private JToggleButton recordReplayToggle;
     private JButton selectFolderButton;
+    private JButton indexButton;
     private FlatTextField selectedFolderField;
     private JButton startStopButton;
     private JButton pauseResumeButton;
     private JButton forwardButton;
+    private JButton backButton;
     private JComboBox<String> speedComboBox;
     private JLabel replayLengthLabel;
     private JLabel totalTicksLabel;
     private JLabel currentTickLabel;
     private JTextField goToTickField;
     private JButton goToTickButton;
+    private JProgressBar seekProgressBar;
+    private JLabel currentTimeLabel;
+    private JTextField goToTimeField;
+    private JButton goToTimeButton;
+    private JTextField queryOpcodeField;
+    private JTextField queryFromField;
+    private JTextField queryToField;
+    private JButton queryButton;
+    private JButton dumpTraceButton;
+    private JButton timingReportButton;
+    private JTextArea metricsArea;
+    private Timer metricsTimer;
 
     public Panel(ReplayPlugin plugin) {
         this.plugin = plugin;
@@ -42,6 +57,14 @@ public class Panel extends PluginPanel {
         add(createInfoPanel());
         add(Box.createRigidArea(new Dimension(0, 10)));
         add(createGoToTickPanel());
+        add(Box.createRigidArea(new Dimension(0, 10)));
+        add(createGoToTimePanel());
+        add(Box.createRigidArea(new Dimension(0, 10)));
+        add(createPacketQueryPanel());
+        add(Box.createRigidArea(new Dimension(0, 10)));
+        add(createDiagnosticsPanel());
+        add(Box.createRigidArea(new Dimension(0, 10)));
+        add(createMetricsPanel());
 
         setupListeners();
     }
@@ -76,6 +99,10 @@ public class Panel extends PluginPanel {
         selectedFolderField.setText("No folder selected");
         folderPanel.add(selectedFolderField, BorderLayout.CENTER);
 
+        indexButton = new JButton("Index");
+        indexButton.setFocusPainted(false);
+        folderPanel.add(indexButton, BorderLayout.EAST);
+
         return folderPanel;
     }
 
@@ -86,6 +113,7 @@ public class Panel extends PluginPanel {
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.insets = new Insets(5, 5, 5, 5);
 
+        backButton = new JButton("<<");
         forwardButton = new JButton(">>");
         pauseResumeButton = new JButton("Pause");
         speedComboBox = new JComboBox<>(new String[]{"0.5x", "1x", "2x", "4x", "8x"});
@@ -93,6 +121,7 @@ public class Panel extends PluginPanel {
         gbc.gridx = 0;
         gbc.gridy = 0;
         gbc.gridwidth = 1;
+        controlPanel.add(backButton, gbc);
 
         gbc.gridx = 1;
         gbc.gridwidth = 2;
@@ -116,16 +145,18 @@ public class Panel extends PluginPanel {
 
     private JPanel createInfoPanel() {
         JPanel infoPanel = new JPanel();
-        infoPanel.setLayout(new GridLayout(3, 1, 5, 5));
+        infoPanel.setLayout(new GridLayout(4, 1, 5, 5));
         infoPanel.setBorder(createTitledBorder("Replay Information"));
 
         replayLengthLabel = new JLabel("Replay Length: 0 ms");
         totalTicksLabel = new JLabel("Total Ticks: 0");
         currentTickLabel = new JLabel("Current Tick: 0");
+        currentTimeLabel = new JLabel("Current Time: 0 ms");
 
         infoPanel.add(replayLengthLabel);
         infoPanel.add(totalTicksLabel);
         infoPanel.add(currentTickLabel);
+        infoPanel.add(currentTimeLabel);
 
         return infoPanel;
     }
@@ -137,12 +168,115 @@ public class Panel extends PluginPanel {
         goToTickField = new JTextField();
         goToTickButton = new JButton("Go");
 
+        seekProgressBar = new JProgressBar(0, 100);
+        seekProgressBar.setStringPainted(true);
+        seekProgressBar.setVisible(false);
+
         goToTickPanel.add(goToTickField, BorderLayout.CENTER);
         goToTickPanel.add(goToTickButton, BorderLayout.EAST);
+        goToTickPanel.add(seekProgressBar, BorderLayout.SOUTH);
 
         return goToTickPanel;
     }
 
+    private JPanel createGoToTimePanel() {
+        JPanel goToTimePanel = new JPanel(new BorderLayout(5, 0));
+        goToTimePanel.setBorder(createTitledBorder("Go To Time (s)"));
+
+        goToTimeField = new JTextField();
+        goToTimeButton = new JButton("Go");
+
+        goToTimePanel.add(goToTimeField, BorderLayout.CENTER);
+        goToTimePanel.add(goToTimeButton, BorderLayout.EAST);
+
+        return goToTimePanel;
+    }
+
+    private JPanel createPacketQueryPanel() {
+        JPanel packetQueryPanel = new JPanel(new BorderLayout(5, 0));
+        packetQueryPanel.setBorder(createTitledBorder("Find Packets (opcode, from s, to s)"));
+
+        JPanel fieldsPanel = new JPanel(new GridLayout(1, 3, 5, 0));
+        queryOpcodeField = new JTextField();
+        queryFromField = new JTextField("0");
+        queryToField = new JTextField();
+        fieldsPanel.add(queryOpcodeField);
+        fieldsPanel.add(queryFromField);
+        fieldsPanel.add(queryToField);
+        queryButton = new JButton("Find");
+
+        packetQueryPanel.add(fieldsPanel, BorderLayout.CENTER);
+        packetQueryPanel.add(queryButton, BorderLayout.EAST);
+
+        return packetQueryPanel;
+    }
+
+    private JPanel createDiagnosticsPanel() {
+        JPanel diagnosticsPanel = new JPanel(new GridLayout(1, 2, 5, 0));
+        diagnosticsPanel.setBorder(createTitledBorder("Diagnostics"));
+
+        dumpTraceButton = new JButton("Dump Trace");
+        dumpTraceButton.setFocusPainted(false);
+        diagnosticsPanel.add(dumpTraceButton);
+
+        timingReportButton = new JButton("Timing");
+        timingReportButton.setFocusPainted(false);
+        diagnosticsPanel.add(timingReportButton);
+
+        return diagnosticsPanel;
+    }
+
+    private JPanel createMetricsPanel() {
+        JPanel metricsPanel = new JPanel(new BorderLayout());
+        metricsPanel.setBorder(createTitledBorder("Metrics"));
+
+        metricsArea = new JTextArea();
+        metricsArea.setEditable(false);
+        metricsArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 10));
+        metricsPanel.add(metricsArea, BorderLayout.CENTER);
+
+        metricsTimer = new Timer(1000, e -> updateMetrics());
+        metricsTimer.start();
+
+        return metricsPanel;
+    }
+
+    private void updateMetrics() {
+        StringBuilder text = new StringBuilder();
+        Metrics.REGISTRY.getCounters().forEach((name, counter) ->
+                text.append(String.format("%s %d (%.1f/s)%n", name, counter.get(), counter.getRate())));
+        Metrics.REGISTRY.getGauges().forEach((name, gauge) ->
+                text.append(String.format("%s %d%n", name, gauge.get())));
+        Metrics.REGISTRY.getHistograms().forEach((name, histogram) -> {
+            if (histogram.getCount() > 0) {
+                text.append(String.format("%s p50=%d p99=%d max=%d%n", name,
+                        histogram.getPercentile(50), histogram.getPercentile(99), histogram.getMax()));
+            }
+        });
+        metricsArea.setText(text.toString());
+    }
+
+    public void showTimingReport(String report) {
+        showReport("Replay Timing", report);
+    }
+
+    public void showPacketQuery(String result) {
+        showReport("Packets", result);
+    }
+
+    private void showReport(String title, String report) {
+        SwingUtilities.invokeLater(() -> {
+            JTextArea reportArea = new JTextArea(report);
+            reportArea.setEditable(false);
+            reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+            JOptionPane.showMessageDialog(this, new JScrollPane(reportArea), title, JOptionPane.INFORMATION_MESSAGE);
+        });
+    }
+
+    public void stopMetrics() {
+        metricsTimer.stop();
+    }
+
     private TitledBorder createTitledBorder(String title) {
         TitledBorder border = BorderFactory.createTitledBorder(title);
         border.setTitleColor(ColorScheme.LIGHT_GRAY_COLOR);
@@ -158,7 +292,8 @@ public class Panel extends PluginPanel {
 
         selectFolderButton.addActionListener(e -> {
             JFileChooser fileChooser = new JFileChooser();
-            fileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            // Recordings are either directories or single container files
+            fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
 
             File defaultFolder = new File(plugin.getRecordingPath().toString());
             if (defaultFolder.exists() && defaultFolder.isDirectory()) {
@@ -173,6 +308,12 @@ public class Panel extends PluginPanel {
             }
         });
 
+        indexButton.addActionListener(e -> plugin.indexRecording());
+
+        dumpTraceButton.addActionListener(e -> plugin.dumpTrace());
+
+        timingReportButton.addActionListener(e -> plugin.showTimingReport());
+
         startStopButton.addActionListener(e -> {
             boolean isRunning = plugin.toggleProxyServer();
             startStopButton.setText(isRunning ? "Stop" : "Start");
@@ -207,6 +348,8 @@ public class Panel extends PluginPanel {
             updateReplayInfo();
         });
 
+        backButton.addActionListener(e -> plugin.stepBackward());
+
         speedComboBox.addActionListener(e -> {
             String selectedSpeed = (String) speedComboBox.getSelectedItem();
             double speed = Double.parseDouble(selectedSpeed.replace("x", ""));
@@ -220,12 +363,43 @@ public class Panel extends PluginPanel {
                 RecordingReplayer replayer = plugin.getRecordingReplayer();
                 if (replayer != null) {
                     replayer.goToTick(targetTick);
-                    updateReplayInfo();
                 }
             } catch (NumberFormatException ex) {
                 JOptionPane.showMessageDialog(this, "Invalid tick number", "Error", JOptionPane.ERROR_MESSAGE);
             }
         });
+
+        goToTimeButton.addActionListener(e -> {
+            try {
+                long targetMillis = (long) (Double.parseDouble(goToTimeField.getText()) * 1000);
+                RecordingReplayer replayer = plugin.getRecordingReplayer();
+                if (replayer != null) {
+                    replayer.goToTime(targetMillis);
+                }
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, "Invalid time", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+
+        queryButton.addActionListener(e -> {
+            try {
+                int opcode = Integer.parseInt(queryOpcodeField.getText().trim());
+                long fromMillis = (long) (Double.parseDouble(queryFromField.getText()) * 1000);
+                String to = queryToField.getText().trim();
+                long toMillis = to.isEmpty() ? Long.MAX_VALUE : (long) (Double.parseDouble(to) * 1000);
+                plugin.queryPackets(opcode, fromMillis, toMillis);
+            } catch (NumberFormatException ex) {
+                JOptionPane.showMessageDialog(this, "Invalid opcode or time", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+
+    public void updateSeekProgress(int done, int total) {
+        SwingUtilities.invokeLater(() -> {
+            seekProgressBar.setVisible(true);
+            seekProgressBar.setMaximum(Math.max(1, total));
+            seekProgressBar.setValue(done);
+        });
     }
 
     public void updateReplayInfo() {
@@ -235,10 +409,16 @@ public class Panel extends PluginPanel {
                 replayLengthLabel.setText(String.format("Replay Length: %d ms", replayer.getReplayLength()));
                 totalTicksLabel.setText(String.format("Total Ticks: %d", replayer.getTotalTicks()));
                 currentTickLabel.setText(String.format("Current Tick: %d", replayer.getCurrentTick()));
+                currentTimeLabel.setText(String.format("Current Time: %d ms", replayer.getCurrentTime()));
+                pauseResumeButton.setText(replayer.isPaused() ? "Resume" : "Pause");
+                if (!replayer.isSeeking()) {
+                    seekProgressBar.setVisible(false);
+                }
             } else {
                 replayLengthLabel.setText("Replay Length: Not loaded");
                 totalTicksLabel.setText("Total Ticks: Not loaded");
                 currentTickLabel.setText("Current Tick: Not loaded");
+                currentTimeLabel.setText("Current Time: Not loaded");
             }
         });
     }
@@ -0,0 +1,123 @@
+package net.subaru.replayer.record;
+
+import net.subaru.replayer.metrics.Counter;
+import net.subaru.replayer.metrics.Histogram;
+import net.subaru.replayer.metrics.Metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Proxy counters, kept in the metrics registry so they show up with the rest of the metrics.
+ */
+public class ProxyStats {
+    private final Counter clientReadsPaused = Metrics.REGISTRY.counter("proxy.client.readsPaused");
+    private final Counter serverReadsPaused = Metrics.REGISTRY.counter("proxy.server.readsPaused");
+    private final Counter clientChunksForwarded = Metrics.PROXY_CLIENT_MESSAGES;
+    private final Counter clientBytesForwarded = Metrics.PROXY_CLIENT_BYTES;
+    private final Counter clientFlushes = Metrics.REGISTRY.counter("proxy.client.flushes");
+    private final Counter serverChunksForwarded = Metrics.PROXY_SERVER_MESSAGES;
+    private final Counter serverBytesForwarded = Metrics.PROXY_SERVER_BYTES;
+    private final Counter serverFlushes = Metrics.REGISTRY.counter("proxy.server.flushes");
+    private final Counter connectFailures = Metrics.REGISTRY.counter("proxy.connectFailures");
+    private final Histogram connectNanos = Metrics.REGISTRY.histogram("proxy.connectNanos");
+
+    /**
+     * Counts how often reading from the client was paused because the server leg's outbound buffer was full.
+     */
+    public void clientReadPaused() {
+        clientReadsPaused.increment();
+    }
+
+    /**
+     * Counts how often reading from the server was paused because the client leg's outbound buffer was full.
+     */
+    public void serverReadPaused() {
+        serverReadsPaused.increment();
+    }
+
+    public void clientChunkForwarded(int bytes) {
+        clientChunksForwarded.increment();
+        clientBytesForwarded.add(bytes);
+    }
+
+    public void clientFlushed() {
+        clientFlushes.increment();
+    }
+
+    public void serverChunkForwarded(int bytes) {
+        serverChunksForwarded.increment();
+        serverBytesForwarded.add(bytes);
+    }
+
+    public void serverFlushed() {
+        serverFlushes.increment();
+    }
+
+    public void connected(long connectNanos) {
+        this.connectNanos.record(connectNanos);
+    }
+
+    public void connectFailed() {
+        connectFailures.increment();
+    }
+
+    public long getConnects() {
+        return connectNanos.getCount();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    public long getAverageConnectNanos() {
+        return (long) connectNanos.getMean();
+    }
+
+    public long getMaxConnectNanos() {
+        return connectNanos.getMax();
+    }
+
+    public long getClientReadsPaused() {
+        return clientReadsPaused.get();
+    }
+
+    public long getServerReadsPaused() {
+        return serverReadsPaused.get();
+    }
+
+    public long getClientChunksForwarded() {
+        return clientChunksForwarded.get();
+    }
+
+    public long getClientFlushes() {
+        return clientFlushes.get();
+    }
+
+    public long getServerChunksForwarded() {
+        return serverChunksForwarded.get();
+    }
+
+    public long getServerFlushes() {
+        return serverFlushes.get();
+    }
+
+    /**
+     * Average number of forwarded chunks per flush, i.e. how many write syscalls batching saved per direction.
+     */
+    private static double chunksPerFlush(long chunks, long flushes) {
+        return flushes == 0 ? 0 : (double) chunks / flushes;
+    }
+
+    @Override
+    public String toString() {
+        double nanosPerMilli = TimeUnit.MILLISECONDS.toNanos(1);
+        return String.format("ProxyStats{clientReadsPaused=%d, serverReadsPaused=%d, "
+                        + "client=%d chunks/%d flushes (%.2f), server=%d chunks/%d flushes (%.2f), "
+                        + "connects=%d, connectFailures=%d, connectAvg=%.2f ms, connectMax=%.2f ms}",
+                getClientReadsPaused(), getServerReadsPaused(),
+                getClientChunksForwarded(), getClientFlushes(), chunksPerFlush(getClientChunksForwarded(), getClientFlushes()),
+                getServerChunksForwarded(), getServerFlushes(), chunksPerFlush(getServerChunksForwarded(), getServerFlushes()),
+                getConnects(), getConnectFailures(),
+                getAverageConnectNanos() / nanosPerMilli, getMaxConnectNanos() / nanosPerMilli);
+    }
+}
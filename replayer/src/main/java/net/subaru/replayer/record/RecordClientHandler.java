@@ -3,17 +3,18 @@ package net.subaru.replayer.record;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
-import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.subaru.replayer.ReplayPlugin;
+import net.subaru.replayer.Transport;
 
-import java.util.concurrent.ThreadFactory;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 public class RecordClientHandler extends SimpleChannelInboundHandler<ByteBuf> {
@@ -22,40 +23,84 @@ public class RecordClientHandler extends SimpleChannelInboundHandler<ByteBuf> {
     private final String address;
     private final int port;
 
-    private final ThreadFactory threadFactory;
-    private final EventLoopGroup eventLoopGroup;
+    private final ProxyStats proxyStats;
+
+    private final int maxWritesPerFlush;
+
     @Getter
     private RecordServerInitializer recordServerInitializer;
 
     private Channel serverChannel;
 
-    public RecordClientHandler(ReplayPlugin replayPlugin, String address, int port) {
+    private int pendingWrites;
+
+    private final Queue<ByteBuf> earlyClientData = new ArrayDeque<>();
+
+    public RecordClientHandler(ReplayPlugin replayPlugin, String address, int port, ProxyStats proxyStats) {
         this.replayPlugin = replayPlugin;
         this.address = address;
         this.port = port;
-        this.threadFactory = new DefaultThreadFactory("server");
-        this.eventLoopGroup = new NioEventLoopGroup(this.threadFactory);
+        this.proxyStats = proxyStats;
+        this.maxWritesPerFlush = Math.max(1, replayPlugin.getConfig().maxWritesPerFlush());
     }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         log.info("Client connected: {}", ctx.channel());
         if (this.serverChannel == null) {
-            this.recordServerInitializer = new RecordServerInitializer(this.replayPlugin, ctx);
+            // Both legs share the client's event loop, so the connect can't block; stop reading until it completes
+            ctx.channel().config().setAutoRead(false);
+            this.recordServerInitializer = new RecordServerInitializer(this.replayPlugin, ctx, this.proxyStats);
             Bootstrap bootstrap = new Bootstrap()
-                    .group(this.eventLoopGroup)
-                    .channel(NioSocketChannel.class)
+                    .group(ctx.channel().eventLoop())
+                    .channel(Transport.of(ctx.channel()).getSocketChannelClass())
+                    .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, this.replayPlugin.getConfig().connectTimeoutMillis())
                     .handler(this.recordServerInitializer);
-            this.serverChannel = bootstrap.connect(this.address, this.port).sync().channel();
+            long connectStart = System.nanoTime();
+            ChannelFuture connectFuture = bootstrap.connect(this.address, this.port);
+            this.serverChannel = connectFuture.channel();
+            connectFuture.addListener(future -> {
+                long connectNanos = System.nanoTime() - connectStart;
+                if (future.isSuccess()) {
+                    this.proxyStats.connected(connectNanos);
+                    log.info("Connected upstream to {}:{} in {} ms", this.address, this.port, TimeUnit.NANOSECONDS.toMillis(connectNanos));
+                    flushEarlyClientData();
+                    ctx.channel().config().setAutoRead(true);
+                } else {
+                    this.proxyStats.connectFailed();
+                    log.error("Failed to connect to {}:{} after {} ms", this.address, this.port,
+                            TimeUnit.NANOSECONDS.toMillis(connectNanos), future.cause());
+                    releaseEarlyClientData();
+                    ctx.close();
+                }
+            });
         }
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-        log.info("Client disconnected: {}", ctx.channel());
+        log.info("Client disconnected: {}, {}", ctx.channel(), this.proxyStats);
+        releaseEarlyClientData();
+        if (this.serverChannel != null) {
+            this.serverChannel.close();
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        boolean writable = ctx.channel().isWritable();
         if (this.serverChannel != null) {
-            this.serverChannel.close().sync();
+            if (!writable) {
+                this.proxyStats.serverReadPaused();
+            }
+            RecordServerHandler serverHandler = this.recordServerInitializer.getRecordServerHandler();
+            if (serverHandler != null) {
+                serverHandler.updateAutoRead();
+            } else {
+                this.serverChannel.config().setAutoRead(writable);
+            }
         }
+        super.channelWritabilityChanged(ctx);
     }
 
     @Override
@@ -65,6 +110,46 @@ public class RecordClientHandler extends SimpleChannelInboundHandler<ByteBuf> {
 
         //byte[] data = new byte[msg.readableBytes()];
         //log.info("Received Client: {}", data);
-        this.serverChannel.writeAndFlush(msg.retain());
+        if (!this.serverChannel.isActive()) {
+            this.earlyClientData.add(msg.retain());
+            return;
+        }
+
+        this.proxyStats.clientChunkForwarded(msg.readableBytes());
+        this.serverChannel.write(msg.retain());
+        if (++this.pendingWrites >= this.maxWritesPerFlush) {
+            flushServer();
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
+        flushServer();
+        super.channelReadComplete(ctx);
+    }
+
+    private void flushEarlyClientData() {
+        ByteBuf data;
+        while ((data = this.earlyClientData.poll()) != null) {
+            this.proxyStats.clientChunkForwarded(data.readableBytes());
+            this.serverChannel.write(data);
+            this.pendingWrites++;
+        }
+        flushServer();
+    }
+
+    private void releaseEarlyClientData() {
+        ByteBuf data;
+        while ((data = this.earlyClientData.poll()) != null) {
+            data.release();
+        }
+    }
+
+    private void flushServer() {
+        if (this.pendingWrites > 0) {
+            this.pendingWrites = 0;
+            this.serverChannel.flush();
+            this.proxyStats.clientFlushed();
+        }
     }
 }
@@ -2,9 +2,11 @@ package net.subaru.replayer.record;
 
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.socket.SocketChannel;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import net.subaru.replayer.ReplayConfig;
 import net.subaru.replayer.ReplayPlugin;
 
 @Slf4j
@@ -12,6 +14,8 @@ public class RecordClientInitializer extends ChannelInitializer<SocketChannel> {
     private final ReplayPlugin replayPlugin;
     @Getter
     private RecordClientHandler recordClientHandler;
+    @Getter
+    private final ProxyStats proxyStats = new ProxyStats();
 
     public RecordClientInitializer(ReplayPlugin replayPlugin) {
         this.replayPlugin = replayPlugin;
@@ -25,8 +29,11 @@ public class RecordClientInitializer extends ChannelInitializer<SocketChannel> {
         if (this.address == null) {
             throw new RuntimeException("No address to connect to set");
         }
+        ReplayConfig config = this.replayPlugin.getConfig();
+        socketChannel.config().setWriteBufferWaterMark(
+                new WriteBufferWaterMark(config.writeBufferLowWaterMark(), config.writeBufferHighWaterMark()));
         ChannelPipeline pipeline = socketChannel.pipeline();
-        this.recordClientHandler = new RecordClientHandler(this.replayPlugin, this.address, this.port);
+        this.recordClientHandler = new RecordClientHandler(this.replayPlugin, this.address, this.port, this.proxyStats);
         pipeline.addLast("handler", recordClientHandler);
     }
 
@@ -1,13 +1,18 @@
 package net.subaru.replayer.record;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import net.subaru.replayer.RecordingFormat;
 import net.subaru.replayer.RecordingWriter;
+import net.subaru.replayer.ReplayConfig;
 import net.subaru.replayer.ReplayPlugin;
+import net.subaru.replayer.format.RecordingContainer;
+import net.subaru.replayer.trace.TraceCategory;
+import net.subaru.replayer.trace.TraceLevel;
+import net.subaru.replayer.trace.Tracer;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -20,24 +25,54 @@ public class RecordServerHandler extends SimpleChannelInboundHandler<ByteBuf> {
 
     private final ChannelHandlerContext clientChannel;
 
+    private final ProxyStats proxyStats;
+
+    private final int maxWritesPerFlush;
+
+    private int pendingWrites;
+
     @Getter
     private RecordingWriter recordingWriter;
 
     private int[] initialIsaac;
 
-    public RecordServerHandler(ReplayPlugin replayPlugin, ChannelHandlerContext clientChannel) {
+    private ChannelHandlerContext serverCtx;
+
+    private boolean writerPaused;
+
+    public RecordServerHandler(ReplayPlugin replayPlugin, ChannelHandlerContext clientChannel, ProxyStats proxyStats) {
         this.replayPlugin = replayPlugin;
         this.clientChannel = clientChannel;
+        this.proxyStats = proxyStats;
+        this.maxWritesPerFlush = Math.max(1, replayPlugin.getConfig().maxWritesPerFlush());
     }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        this.serverCtx = ctx;
         this.initialIsaac = this.replayPlugin.getIsaacKey();
         log.info("Connected to the server: {}, {}", ctx.channel(), this.initialIsaac);
         String timestamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(Calendar.getInstance().getTime());
-        Path recordingPath = replayPlugin.getRecordingPath(timestamp);
-        Files.createDirectories(recordingPath);
-        this.recordingWriter = new RecordingWriter(recordingPath);
+        ReplayConfig config = replayPlugin.getConfig();
+        Path recordingPath;
+        if (config.recordingFormat() == RecordingFormat.CONTAINER) {
+            recordingPath = replayPlugin.getRecordingPath(timestamp + RecordingContainer.EXTENSION);
+            Files.createDirectories(recordingPath.getParent());
+        } else {
+            recordingPath = replayPlugin.getRecordingPath(timestamp);
+            Files.createDirectories(recordingPath);
+        }
+        // Without a size table the packets can't be framed, so fall back to a raw capture
+        int[] packetSizes = config.packetCapture() ? replayPlugin.getServerPacketSizes() : null;
+        this.recordingWriter = new RecordingWriter(recordingPath, config.fsyncPolicy(), config.fsyncEveryMessages(),
+                config.fsyncIntervalMillis(), config.writerQueueCapacity(), packetSizes, config.recordingCodec());
+        this.recordingWriter.setBackpressure(() -> {
+            this.writerPaused = true;
+            ctx.channel().config().setAutoRead(false);
+        }, () -> ctx.channel().eventLoop().execute(() -> {
+            this.writerPaused = false;
+            updateAutoRead();
+        }));
     }
 
     @Override
@@ -45,26 +80,37 @@ public class RecordServerHandler extends SimpleChannelInboundHandler<ByteBuf> {
         log.info("Disconnected from the server: {}", ctx.channel());
         this.clientChannel.close();
         if (this.recordingWriter != null) {
-            this.recordingWriter.close();
+            // The final sync and footer are disk work, so they finish on the writer thread rather than this event loop
+            this.recordingWriter.closeAsync().whenComplete((ignored, cause) -> {
+                if (cause != null) {
+                    log.error("Couldn't finish the recording", cause);
+                }
+            });
         }
     }
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
-        int startIndex = msg.readerIndex();
-
-        byte[] data = new byte[msg.readableBytes()];
-        //log.info("Server read: {}", ByteBufUtil.getBytes(msg));
-        msg.readBytes(data);
-
-        msg.readerIndex(startIndex);
-
-        log.info("Server read");
-        this.clientChannel.writeAndFlush(msg.retain());
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        boolean writable = ctx.channel().isWritable();
+        if (!writable) {
+            this.proxyStats.clientReadPaused();
+        }
+        this.clientChannel.channel().config().setAutoRead(writable);
+        super.channelWritabilityChanged(ctx);
+    }
 
-        //log.info("Received Server Packet: {}", );
-        //log.info("\n{}", ByteBufUtil.prettyHexDump(msg));
+    /**
+     * The server leg only reads while the client can take the data and the recording writer keeps up.
+     */
+    void updateAutoRead() {
+        if (this.serverCtx != null) {
+            this.serverCtx.channel().config().setAutoRead(this.clientChannel.channel().isWritable() && !this.writerPaused);
+        }
+    }
 
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf msg) throws Exception {
+        Tracer.trace(TraceCategory.PROXY, TraceLevel.TRACE, "Server read {} bytes", msg.readableBytes());
         if (this.recordingWriter != null) {
             if (!this.recordingWriter.isIsaacWritten()) {
                 int[] isaacKey = replayPlugin.getIsaacKey();
@@ -74,14 +120,28 @@ public class RecordServerHandler extends SimpleChannelInboundHandler<ByteBuf> {
                 }
             }
 
-            this.recordingWriter.write(data);
+            // Taken before forwarding: a flush can write part of msg to the client inline and advance its reader index
+            this.recordingWriter.write(msg.retainedDuplicate());
+        }
+
+        this.proxyStats.serverChunkForwarded(msg.readableBytes());
+        this.clientChannel.write(msg.retain());
+        if (++this.pendingWrites >= this.maxWritesPerFlush) {
+            flushClient();
         }
     }
 
     @Override
     public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
-        if (this.recordingWriter != null) {
-            this.recordingWriter.flush();
+        flushClient();
+        super.channelReadComplete(ctx);
+    }
+
+    private void flushClient() {
+        if (this.pendingWrites > 0) {
+            this.pendingWrites = 0;
+            this.clientChannel.flush();
+            this.proxyStats.serverFlushed();
         }
     }
 }
@@ -3,8 +3,10 @@ package net.subaru.replayer.record;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
+import io.netty.channel.WriteBufferWaterMark;
 import io.netty.channel.socket.SocketChannel;
 import lombok.Getter;
+import net.subaru.replayer.ReplayConfig;
 import net.subaru.replayer.ReplayPlugin;
 
 public class RecordServerInitializer extends ChannelInitializer<SocketChannel> {
@@ -12,18 +14,24 @@ public class RecordServerInitializer extends ChannelInitializer<SocketChannel> {
 
     private final ChannelHandlerContext clientCtx;
 
+    private final ProxyStats proxyStats;
+
     @Getter
     private RecordServerHandler recordServerHandler;
 
-    public RecordServerInitializer(ReplayPlugin replayPlugin, ChannelHandlerContext clientCtx) {
+    public RecordServerInitializer(ReplayPlugin replayPlugin, ChannelHandlerContext clientCtx, ProxyStats proxyStats) {
         this.replayPlugin = replayPlugin;
         this.clientCtx = clientCtx;
+        this.proxyStats = proxyStats;
     }
 
     @Override
     protected void initChannel(SocketChannel socketChannel) throws Exception {
+        ReplayConfig config = this.replayPlugin.getConfig();
+        socketChannel.config().setWriteBufferWaterMark(
+                new WriteBufferWaterMark(config.writeBufferLowWaterMark(), config.writeBufferHighWaterMark()));
         ChannelPipeline pipeline = socketChannel.pipeline();
-        this.recordServerHandler = new RecordServerHandler(this.replayPlugin, this.clientCtx);
+        this.recordServerHandler = new RecordServerHandler(this.replayPlugin, this.clientCtx, this.proxyStats);
         pipeline.addLast("handler", recordServerHandler);
     }
 }
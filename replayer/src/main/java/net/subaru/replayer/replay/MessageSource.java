@@ -0,0 +1,17 @@
+package net.subaru.replayer.replay;
+
+import io.netty.buffer.ByteBuf;
+
+interface MessageSource {
+    int size();
+
+    long getTimeNanos(int index);
+
+    /**
+     * Returns a retained view of the message, or null if it isn't read yet. The caller owns the reference and
+     * releases it, usually by writing it. Never blocks, it is called from the channel's event loop.
+     */
+    ByteBuf retainedData(int index);
+
+    void close();
+}
@@ -0,0 +1,53 @@
+package net.subaru.replayer.replay;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import net.subaru.replayer.RecordingParser;
+
+/**
+ * Holds the whole recording in one direct arena with the message offsets and times in primitive columns, so
+ * preloading costs about the payload size and no per-message objects. Sends are pooled slices of the arena.
+ */
+class PreloadedMessageSource implements MessageSource {
+    private final ByteBuf arena;
+    private final int[] offsets;
+    private final long[] timesNanos;
+
+    public PreloadedMessageSource(RecordingParser recordingParser) {
+        int messageCount = recordingParser.getMessageCount();
+        long size = recordingParser.getMessageOffset(messageCount);
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Recording is too large to preload (" + size + " bytes), use streaming playback");
+        }
+
+        this.arena = PooledByteBufAllocator.DEFAULT.directBuffer((int) size, (int) size);
+        this.offsets = new int[messageCount + 1];
+        this.timesNanos = new long[messageCount];
+        for (int i = 0; i < messageCount; i++) {
+            this.arena.writeBytes(recordingParser.sliceMessage(i));
+            this.offsets[i + 1] = this.arena.writerIndex();
+            this.timesNanos[i] = recordingParser.getMessageTimeNanos(i);
+        }
+    }
+
+    @Override
+    public int size() {
+        return timesNanos.length;
+    }
+
+    @Override
+    public long getTimeNanos(int index) {
+        return timesNanos[index];
+    }
+
+    @Override
+    public ByteBuf retainedData(int index) {
+        return arena.retainedSlice(offsets[index], offsets[index + 1] - offsets[index]);
+    }
+
+    @Override
+    public void close() {
+        // Slices still queued on the channel keep the arena alive until they are written
+        arena.release();
+    }
+}
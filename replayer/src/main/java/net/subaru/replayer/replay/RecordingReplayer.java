@@ -1,34 +1,49 @@
 package net.subaru.replayer.replay;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.Channel;
-import jdk.dynalink.beans.StaticClass;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.EventLoop;
+import io.netty.channel.FileRegion;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.ScheduledFuture;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import net.runelite.api.packets.AbstractSocket;
-import net.runelite.client.plugins.itemstats.stats.Stat;
-import net.runelite.rs.api.RSAbstractSocket;
-import net.runelite.rs.api.RSBufferedNetSocket;
 import net.subaru.replayer.RecordingParser;
 import net.subaru.replayer.ReplayPlugin;
-import net.unethicalite.api.packets.MousePackets;
+import net.subaru.replayer.format.PacketFramer;
+import net.subaru.replayer.format.TickIndex;
+import net.subaru.replayer.metrics.Metrics;
+import net.subaru.replayer.trace.TraceCategory;
+import net.subaru.replayer.trace.TraceLevel;
+import net.subaru.replayer.trace.Tracer;
 import net.unethicalite.client.Static;
 
 import javax.swing.*;
-import java.io.IOException;
-import java.net.Socket;
-import java.net.SocketException;
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Dispatches recorded messages on the client channel's event loop. Each message is scheduled for a
+ * {@link System#nanoTime()} deadline derived from the recording timeline, so timing errors do not accumulate.
+ */
 @Slf4j
-public class RecordingReplayer extends Thread {
-    private final List<Message> messageBuffer;
+public class RecordingReplayer {
+    private static final long PAUSE_KEEP_ALIVE_MILLIS = 100;
+    private static final int MAX_MESSAGES_PER_DISPATCH = 64;
+    private static final int SEEK_BATCH_MESSAGES = 256;
+    private static final int SEEK_BATCH_BYTES = 512 * 1024;
+    private static final long READ_AHEAD_RETRY_MILLIS = 1;
+
+    private final RecordingParser recordingParser;
+    private final MessageSource messageBuffer;
     private final Channel channel;
+    private final EventLoop eventLoop;
     private final MessageSender messageSender;
     private final TimingController timingController;
+    private final TimingReport timingReport;
+    private final RewindState rewindState;
+    private final TickIndex tickIndex;
     private ReplayPlugin plugin;
 
     @Getter
@@ -39,64 +54,136 @@ public class RecordingReplayer extends Thread {
     private int totalTicks;
     @Getter
     private int lastPendingWrites = 0;
-    public RecordingReplayer(RecordingParser recordingParser, ReplayPlugin plugin, Channel channel) {
+
+    private boolean started;
+    private boolean stopped;
+    @Getter
+    private volatile boolean seeking;
+    private ScheduledFuture<?> dispatchFuture;
+    private ScheduledFuture<?> keepAliveFuture;
+
+    public RecordingReplayer(RecordingParser recordingParser, ReplayPlugin plugin, Channel channel, RewindState rewindState) {
         this.plugin = plugin;
+        this.rewindState = rewindState;
         this.channel = channel;
-        this.messageBuffer = preloadMessages(recordingParser);
-        this.messageSender = new MessageSender(channel);
-        this.timingController = new TimingController(messageBuffer);
-        this.totalTicks = messageBuffer.size() - 2;
+        this.eventLoop = channel.eventLoop();
+        this.recordingParser = recordingParser;
+        this.messageBuffer = plugin.getConfig().streamingPlayback()
+                ? new StreamingMessageSource(recordingParser, plugin.getConfig().readAheadMessages())
+                : new PreloadedMessageSource(recordingParser);
+        this.messageSender = new MessageSender(channel, messageBuffer,
+                plugin.getConfig().fileRegionPlayback() && recordingParser.hasFileRegions() ? recordingParser : null);
+        long toleranceNanos = TimeUnit.MILLISECONDS.toNanos(plugin.getConfig().timingToleranceMillis());
+        this.timingController = new TimingController(messageBuffer, toleranceNanos);
+        this.timingReport = new TimingReport(toleranceNanos);
+        this.tickIndex = TickIndex.build(recordingParser, PacketFramer.LOGIN_MESSAGES);
+        this.totalTicks = tickIndex.getTickCount();
         lastPendingWrites = 0;
         log.info("RecordingReplayer initialized with {} messages", messageBuffer.size());
     }
 
     public int getCurrentTick() {
-        return Math.max(0, messageIndex - 2);
+        return Math.max(0, tickIndex.getTick(messageIndex - 1));
+    }
+
+    public void start() {
+        eventLoop.execute(() -> {
+            if (started || stopped) {
+                return;
+            }
+            started = true;
+            timingController.startReplay(messageIndex);
+            if (isPaused) {
+                timingController.pauseStarted();
+                startKeepAlive();
+            } else {
+                scheduleNext();
+            }
+        });
     }
 
-    private List<Message> preloadMessages(RecordingParser recordingParser) {
-        return IntStream.range(0, recordingParser.getMessageCount())
-                .mapToObj(i -> new Message(
-                        recordingParser.readMessage(getMessageOffset(recordingParser, i), recordingParser.getMessageLength(i)),
-                        recordingParser.getMessageTimestamp(i)))
-                .collect(Collectors.toList());
+    /**
+     * Stops dispatching. On the event loop the scheduled work is cancelled before this returns.
+     */
+    public void stop() {
+        if (eventLoop.inEventLoop()) {
+            stopNow();
+        } else {
+            eventLoop.execute(this::stopNow);
+        }
     }
 
-    private int getMessageOffset(RecordingParser recordingParser, int index) {
-        return IntStream.range(0, index)
-                .map(recordingParser::getMessageLength)
-                .sum();
+    private void stopNow() {
+        stopped = true;
+        cancelDispatch();
+        stopKeepAlive();
     }
 
     public boolean togglePause() {
-        isPaused = !isPaused;
-        if (isPaused) {
-            lastPendingWrites = Static.getClient().getPacketWriter().getPendingWrites();
-            timingController.pauseStarted();
-        } else {
-            timingController.pauseEnded();
-        }
-        log.info("Replay {} at message index {}", isPaused ? "paused" : "resumed", messageIndex);
-        return isPaused;
+        boolean paused = !isPaused;
+        isPaused = paused;
+        eventLoop.execute(() -> {
+            if (paused) {
+                pauseNow();
+            } else {
+                stopKeepAlive();
+                timingController.pauseEnded();
+                scheduleNext();
+            }
+            log.info("Replay {} at message index {}", paused ? "paused" : "resumed", messageIndex);
+        });
+        return paused;
+    }
+
+    private void pauseNow() {
+        isPaused = true;
+        lastPendingWrites = Static.getClient().getPacketWriter().getPendingWrites();
+        cancelDispatch();
+        timingController.pauseStarted();
+        startKeepAlive();
     }
 
     public void setSpeedMultiplier(double speedMultiplier) {
-        timingController.setSpeedMultiplier(speedMultiplier);
-        log.info("Replay speed set to {}", speedMultiplier);
+        eventLoop.execute(() -> {
+            timingController.setSpeedMultiplier(speedMultiplier);
+            log.info("Replay speed set to {}", speedMultiplier);
+            if (!isPaused) {
+                scheduleNext();
+            }
+        });
     }
 
     public void stepForward() {
-        if (!isPaused || messageIndex >= messageBuffer.size() - 1) {
+        eventLoop.execute(this::stepForwardNow);
+    }
+
+    private void stepForwardNow() {
+        if (stopped || !isPaused || seeking || messageIndex >= messageBuffer.size() - 1) {
             log.info("Cannot step forward: paused={}, messageIndex={}, totalMessages={}",
                     isPaused, messageIndex, messageBuffer.size());
             return;
         }
 
         log.info("Stepping forward from index {}", messageIndex);
-        messageSender.sendMessage(messageBuffer.get(messageIndex), messageIndex);
+        if (!messageSender.sendMessage(messageIndex)) {
+            log.info("Message index {} isn't read yet", messageIndex);
+            return;
+        }
+        channel.flush();
         messageIndex++;
-        timingController.stepForward(messageBuffer.get(messageIndex).getTimestamp());
+        timingController.jumpTo(messageBuffer.getTimeNanos(messageIndex));
         log.info("Stepped forward to message index: {}", messageIndex);
+        updatePanel();
+    }
+
+    public void stepBackward() {
+        eventLoop.execute(() -> {
+            if (!isPaused || seeking || messageIndex <= PacketFramer.LOGIN_MESSAGES) {
+                log.info("Cannot step backward: paused={}, messageIndex={}", isPaused, messageIndex);
+                return;
+            }
+            rewindTo(messageIndex - 1);
+        });
     }
 
     public void goToTick(int targetTick) {
@@ -105,17 +192,116 @@ public class RecordingReplayer extends Thread {
             return;
         }
 
-        int targetIndex = targetTick + 2; // Add 2 to account for login packets
-        setSpeedMultiplier(99999.0); // Set a high speed to quickly reach the target tick
-        while (messageIndex < targetIndex && messageIndex < messageBuffer.size())
-        {
-            stepForward();
+        seekTo(tickIndex.getMessageIndex(targetTick));
+    }
+
+    public void goToTime(long millisFromStart) {
+        int messageCount = recordingParser.getMessageCount();
+        if (messageCount == 0 || millisFromStart < 0 || millisFromStart > recordingParser.getMessageTime(messageCount - 1)) {
+            log.warn("Invalid time: {}", millisFromStart);
+            return;
         }
-        setSpeedMultiplier(1.0);
-        if (!isPaused)
-        {
-            togglePause();
+
+        seekTo(recordingParser.findMessageAtTime(millisFromStart));
+    }
+
+    public long getCurrentTime() {
+        return messageIndex > 0 ? recordingParser.getMessageTime(Math.min(messageIndex, messageBuffer.size()) - 1) : 0;
+    }
+
+    /**
+     * Fast-forwards to the given message index by coalescing the skipped messages into large composite
+     * writes with one flush per batch, then leaves the replay paused at exactly that index.
+     */
+    public void seekTo(int targetIndex) {
+        eventLoop.execute(() -> {
+            if (seeking || stopped) {
+                log.warn("Cannot seek to {}: seeking={}, stopped={}", targetIndex, seeking, stopped);
+                return;
+            }
+            if (!isPaused) {
+                pauseNow();
+            }
+
+            int target = Math.max(PacketFramer.LOGIN_MESSAGES, Math.min(targetIndex, messageBuffer.size() - 1));
+            if (target < messageIndex) {
+                rewindTo(target);
+                return;
+            }
+            if (target == messageIndex) {
+                return;
+            }
+
+            log.info("Seeking from message index {} to {}", messageIndex, target);
+            seeking = true;
+            sendSeekBatch(messageIndex, target);
+        });
+    }
+
+    /**
+     * The client's game state and ISAAC cipher only move forwards, so going back means a fresh login: the
+     * session is closed, the client reconnects through the login handshake and the new session fast-forwards
+     * with batched writes to the target at the speed the replay was running at.
+     */
+    private void rewindTo(int targetIndex) {
+        log.info("Rewinding from message index {} to {}", messageIndex, targetIndex);
+        rewindState.set(targetIndex, timingController.getSpeedMultiplier());
+        stopped = true;
+        cancelDispatch();
+        stopKeepAlive();
+        channel.close().addListener(future -> plugin.reconnectReplay());
+    }
+
+    /**
+     * Called on a new client session after a rewind to fast-forward to the given index.
+     */
+    public void resumeAt(int targetIndex, double speedMultiplier) {
+        eventLoop.execute(() -> timingController.setSpeedMultiplier(speedMultiplier));
+        seekTo(targetIndex);
+    }
+
+    private void sendSeekBatch(int startIndex, int targetIndex) {
+        if (stopped) {
+            seeking = false;
+            return;
+        }
+
+        int batchStart = messageIndex;
+        try {
+            messageIndex = messageSender.writeBatch(messageIndex, targetIndex);
+        } catch (RuntimeException e) {
+            log.error("Seek stopped at message index {}, the recording couldn't be read", messageIndex, e);
+            seeking = false;
+            stopped = true;
+            return;
+        }
+        if (messageIndex == batchStart) {
+            eventLoop.schedule(() -> sendSeekBatch(startIndex, targetIndex), READ_AHEAD_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+            return;
         }
+
+        channel.flush();
+        messageSender.lastWrite().addListener(future -> {
+            if (stopped) {
+                seeking = false;
+                return;
+            }
+            if (!future.isSuccess()) {
+                log.warn("Seek aborted at message index {}", messageIndex, future.cause());
+                seeking = false;
+                return;
+            }
+
+            updateSeekProgress(messageIndex - startIndex, targetIndex - startIndex);
+            if (messageIndex < targetIndex) {
+                sendSeekBatch(startIndex, targetIndex);
+            } else {
+                timingController.jumpTo(messageBuffer.getTimeNanos(messageIndex));
+                seeking = false;
+                log.info("Seek completed at message index {}", messageIndex);
+                updatePanel();
+            }
+        });
     }
 
     public long getReplayLength() {
@@ -123,169 +309,307 @@ public class RecordingReplayer extends Thread {
         {
             return 0;
         }
-        long firstMessageTime = messageBuffer.get(0).getTimestamp();
-        long lastMessageTime = messageBuffer.get(messageBuffer.size() - 1).getTimestamp();
-        return lastMessageTime - firstMessageTime;
+        long firstMessageTime = messageBuffer.getTimeNanos(0);
+        long lastMessageTime = messageBuffer.getTimeNanos(messageBuffer.size() - 1);
+        return TimeUnit.NANOSECONDS.toMillis(lastMessageTime - firstMessageTime);
     }
 
-    public void run() {
-        timingController.startReplay();
+    /**
+     * Builds the timing report on the event loop, which owns it.
+     */
+    public Future<String> getTimingReport() {
+        return eventLoop.submit(timingReport::format);
+    }
 
-        while (messageIndex < messageBuffer.size()) {
-            if (isPaused) {
-                try {
-                    try
-                    {
-                        int packets = (int) plugin.getSinceLastPacket();
-                        Static.getClient().getPacketWriter().setRemainingWrites(0);
-                        log.info("Packets since last: {}, Pending Writes: {}", Static.getClient().getPacketWriter().getRemainingWrites(), Static.getClient().getPacketWriter().getPendingWrites());
-                    }
-                    catch (NoSuchFieldException | ClassNotFoundException | IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
+    public long getDriftCorrections() {
+        return timingController.getDriftCorrections();
+    }
 
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    log.warn("Pause interrupted", e);
-                }
-                continue;
-            }
+    private void scheduleNext() {
+        if (stopped || isPaused || !started) {
+            return;
+        }
+        if (messageIndex >= messageBuffer.size()) {
+            log.info("Replay completed. Total messages sent: {}", messageIndex);
+            log.info("{}", timingReport.format());
+            return;
+        }
 
-            Message currentMessage = messageBuffer.get(messageIndex);
-            long sleepTime = timingController.calculateSleepTime(currentMessage.getTimestamp());
+        cancelDispatch();
+        long delay = timingController.deadline(messageBuffer.getTimeNanos(messageIndex)) - System.nanoTime();
+        dispatchFuture = eventLoop.schedule(this::dispatchDue, Math.max(0, delay), TimeUnit.NANOSECONDS);
+    }
 
-            log.info("Message timing: index={}, sleepTime={}", messageIndex, sleepTime);
+    private void dispatchDue() {
+        dispatchFuture = null;
+        if (stopped || isPaused) {
+            return;
+        }
 
-            if (sleepTime > 0) {
-                try {
-                    Thread.sleep(sleepTime);
-                } catch (InterruptedException e) {
-                    log.warn("Replay interrupted", e);
+        int sent = 0;
+        boolean waiting = false;
+        try {
+            while (messageIndex < messageBuffer.size() && sent < MAX_MESSAGES_PER_DISPATCH) {
+                long messageTime = messageBuffer.getTimeNanos(messageIndex);
+                long lateness = System.nanoTime() - timingController.deadline(messageTime);
+                if (lateness < 0) {
+                    break;
                 }
-            }
-
-            messageSender.sendMessage(currentMessage, messageIndex);
-            timingController.messageProcessed(currentMessage.getTimestamp());
-            messageIndex++;
-
-            SwingUtilities.invokeLater(() -> {
-                if (plugin.getPluginPanel() != null) {
-                    plugin.getPluginPanel().updateReplayInfo();
+                if (!messageSender.sendMessage(messageIndex)) {
+                    waiting = true;
+                    break;
                 }
-            });
+
+                Metrics.REPLAY_DRIFT.record(lateness);
+                timingReport.record(timingController.getSpeedMultiplier(), messageIndex, lateness);
+                timingController.correctDrift(lateness);
+                messageIndex++;
+                sent++;
+            }
+        } catch (RuntimeException e) {
+            log.error("Replay stopped at message index {}, the recording couldn't be read", messageIndex, e);
+            stopped = true;
+            stopKeepAlive();
         }
 
-        log.info("Replay completed. Total messages sent: {}", messageIndex);
+        if (sent > 0) {
+            channel.flush();
+            updatePanel();
+        }
+        if (waiting) {
+            // The read-ahead is behind, check again shortly rather than block the event loop
+            dispatchFuture = eventLoop.schedule(this::dispatchDue, READ_AHEAD_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+        } else {
+            scheduleNext();
+        }
     }
 
-    private static class Message {
-        private final byte[] data;
-        private final long timestamp;
+    private void cancelDispatch() {
+        if (dispatchFuture != null) {
+            dispatchFuture.cancel(false);
+            dispatchFuture = null;
+        }
+    }
 
-        public Message(byte[] data, long timestamp) {
-            this.data = data;
-            this.timestamp = timestamp;
+    private void startKeepAlive() {
+        // Keeps the client from timing out its own connection while nothing is being sent
+        if (keepAliveFuture == null) {
+            keepAliveFuture = eventLoop.scheduleAtFixedRate(() -> Static.getClient().getPacketWriter().setRemainingWrites(0),
+                    0, PAUSE_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS);
         }
+    }
 
-        public byte[] getData() {
-            return data;
+    private void stopKeepAlive() {
+        if (keepAliveFuture != null) {
+            keepAliveFuture.cancel(false);
+            keepAliveFuture = null;
         }
+    }
+
+    private void updatePanel() {
+        SwingUtilities.invokeLater(() -> {
+            if (plugin.getPluginPanel() != null) {
+                plugin.getPluginPanel().updateReplayInfo();
+            }
+        });
+    }
+
+    private void updateSeekProgress(int done, int total) {
+        SwingUtilities.invokeLater(() -> {
+            if (plugin.getPluginPanel() != null) {
+                plugin.getPluginPanel().updateSeekProgress(done, total);
+            }
+        });
+    }
 
-        public long getTimestamp() {
-            return timestamp;
+    /**
+     * Stops the replay and releases the message source. The release runs on the event loop after the scheduled work
+     * is cancelled, so no dispatch or seek batch can read from a released source.
+     */
+    public void close() {
+        if (eventLoop.inEventLoop()) {
+            stopNow();
+            messageBuffer.close();
+        } else {
+            eventLoop.execute(() -> {
+                stopNow();
+                messageBuffer.close();
+            });
         }
     }
 
+    /**
+     * Writes messages to the client. Mapped recordings with plain data are sent as regions of the recording file,
+     * so the kernel copies them to the socket with sendfile; everything else is written as views of the loaded,
+     * mapped or decoded data. Neither path copies message bytes on the JVM side.
+     */
     private static class MessageSender {
         private final Channel channel;
+        private final MessageSource messageBuffer;
+        private final RecordingParser fileRegions;
+        private ChannelFuture lastWrite;
 
-        public MessageSender(Channel channel) {
+        public MessageSender(Channel channel, MessageSource messageBuffer, RecordingParser fileRegions) {
             this.channel = channel;
+            this.messageBuffer = messageBuffer;
+            this.fileRegions = fileRegions;
+            this.lastWrite = channel.newSucceededFuture();
         }
 
-        public void sendMessage(Message message, int index) {
-            ByteBuf buf = Unpooled.wrappedBuffer(message.getData());
+        /**
+         * Returns false without writing anything if the message isn't read yet.
+         */
+        public boolean sendMessage(int index) {
+            if (index < PacketFramer.LOGIN_MESSAGES) {
+                Tracer.trace(TraceCategory.REPLAY, TraceLevel.DEBUG, "Skipped login message {}", index);
+                return true;
+            }
 
-            if (index >= 2) {
-                log.info("Sending message: index={}, length={}, first few bytes: {}",
-                        index, message.getData().length, bytesToHex(message.getData(), 0, Math.min(10, message.getData().length)));
-                channel.writeAndFlush(buf);
-                log.info("Sent message: index={}, length={}", index, message.getData().length);
+            if (fileRegions != null) {
+                FileRegion region = fileRegions.messageRegion(index);
+                Tracer.trace(TraceCategory.REPLAY, TraceLevel.TRACE, "Sending message {} from file, length={}", index, region.count());
+                Metrics.REPLAY_BYTES.add(region.count());
+                lastWrite = channel.write(region);
             } else {
-                log.info("Skipped initial message: index={}, length={}", index, message.getData().length);
+                ByteBuf data = messageBuffer.retainedData(index);
+                if (data == null) {
+                    return false;
+                }
+                if (Tracer.sample(TraceCategory.REPLAY, TraceLevel.TRACE)) {
+                    Tracer.record(TraceCategory.REPLAY, TraceLevel.TRACE, "Sending message {}, length={}, head={}",
+                            index, data.readableBytes(), Tracer.hex(data, 10));
+                }
+                Metrics.REPLAY_BYTES.add(data.readableBytes());
+                lastWrite = channel.write(data);
             }
+            Metrics.REPLAY_MESSAGES.increment();
+            return true;
         }
 
-        private static String bytesToHex(byte[] bytes, int offset, int length) {
-            StringBuilder sb = new StringBuilder();
-            for (int i = offset; i < offset + length; i++) {
-                sb.append(String.format("%02X ", bytes[i]));
+        /**
+         * Writes messages from the given index without flushing until a batch limit, the target or a message that
+         * isn't read yet is reached, and returns the index after the last message written.
+         */
+        public int writeBatch(int index, int targetIndex) {
+            if (fileRegions != null) {
+                // Consecutive messages are contiguous in the file, so the whole batch goes out as one region
+                int end = Math.min(targetIndex, index + SEEK_BATCH_MESSAGES);
+                int from = Math.max(index, PacketFramer.LOGIN_MESSAGES);
+                if (from >= end) {
+                    return end;
+                }
+                long start = fileRegions.getMessageOffset(from);
+                int to = from;
+                while (to < end && fileRegions.getMessageOffset(to) - start < SEEK_BATCH_BYTES) {
+                    to++;
+                }
+                FileRegion region = fileRegions.messagesRegion(from, to);
+                Metrics.REPLAY_BYTES.add(region.count());
+                Metrics.REPLAY_MESSAGES.add(to - from);
+                lastWrite = channel.write(region);
+                return to;
+            }
+
+            int start = index;
+            CompositeByteBuf batch = channel.alloc().compositeDirectBuffer(SEEK_BATCH_MESSAGES);
+            try {
+                while (index < targetIndex && batch.numComponents() < SEEK_BATCH_MESSAGES && batch.readableBytes() < SEEK_BATCH_BYTES) {
+                    if (index >= PacketFramer.LOGIN_MESSAGES) {
+                        ByteBuf data = messageBuffer.retainedData(index);
+                        if (data == null) {
+                            break;
+                        }
+                        batch.addComponent(true, data);
+                    }
+                    index++;
+                }
+            } catch (RuntimeException e) {
+                batch.release();
+                throw e;
+            }
+
+            if (index == start) {
+                batch.release();
+            } else {
+                Metrics.REPLAY_BYTES.add(batch.readableBytes());
+                Metrics.REPLAY_MESSAGES.add(batch.numComponents());
+                lastWrite = channel.write(batch);
             }
-            return sb.toString();
+            return index;
+        }
+
+        public ChannelFuture lastWrite() {
+            return lastWrite;
         }
     }
 
     private static class TimingController {
-        private final List<Message> messageBuffer;
+        private final MessageSource messageBuffer;
+        private final long toleranceNanos;
         private double speedMultiplier = 1.0;
-        private long replayStartTime;
-        private long lastProcessedRealTime;
-        private long lastProcessedMessageTime;
-        private long totalPausedTime = 0;
+        private long anchorRealTime;
+        private long anchorMessageTime;
         private long pauseStartTime = 0;
         private boolean isPaused = false;
+        private long driftCorrections;
 
-        public TimingController(List<Message> messageBuffer) {
+        public TimingController(MessageSource messageBuffer, long toleranceNanos) {
             this.messageBuffer = messageBuffer;
+            this.toleranceNanos = toleranceNanos;
         }
 
-        public void startReplay() {
-            replayStartTime = System.currentTimeMillis();
-            lastProcessedRealTime = replayStartTime;
-            lastProcessedMessageTime = messageBuffer.get(0).getTimestamp();
+        public void startReplay(int messageIndex) {
+            anchorRealTime = System.nanoTime();
+            anchorMessageTime = messageBuffer.getTimeNanos(Math.min(messageIndex, messageBuffer.size() - 1));
         }
 
         public void setSpeedMultiplier(double speedMultiplier) {
+            // Re-anchor at the current timeline position so the new speed only applies from now on
+            long now = isPaused ? pauseStartTime : System.nanoTime();
+            anchorMessageTime += (long) ((now - anchorRealTime) * this.speedMultiplier);
+            anchorRealTime = now;
             this.speedMultiplier = speedMultiplier;
         }
 
         public void pauseStarted() {
             isPaused = true;
-            pauseStartTime = System.currentTimeMillis();
+            pauseStartTime = System.nanoTime();
         }
 
         public void pauseEnded() {
             isPaused = false;
-            totalPausedTime += System.currentTimeMillis() - pauseStartTime;
-            lastProcessedRealTime = System.currentTimeMillis();
+            anchorRealTime += System.nanoTime() - pauseStartTime;
         }
 
-        public void stepForward(long newTimestamp) {
-            long currentTime = System.currentTimeMillis();
-            long timeDiff = newTimestamp - lastProcessedMessageTime;
-            lastProcessedRealTime = currentTime - (long)(timeDiff / speedMultiplier);
-            lastProcessedMessageTime = newTimestamp;
+        /**
+         * Re-anchors the timeline at the given message time after a step or seek moved the replay there.
+         */
+        public void jumpTo(long messageTime) {
+            anchorMessageTime = messageTime;
+            anchorRealTime = isPaused ? pauseStartTime : System.nanoTime();
         }
 
-        public void stepBackward(long newTimestamp) {
-            lastProcessedMessageTime = newTimestamp;
-            lastProcessedRealTime = System.currentTimeMillis();
+        public long deadline(long messageTime) {
+            return anchorRealTime + (long) ((messageTime - anchorMessageTime) / speedMultiplier);
         }
 
-        public long calculateSleepTime(long messageTimestamp) {
-            if (isPaused) {
-                return 0;
+        /**
+         * Shifts the timeline when dispatch falls behind by more than the tolerance, so a stall is not followed by a burst.
+         */
+        public void correctDrift(long lateness) {
+            if (lateness > toleranceNanos) {
+                anchorRealTime += lateness;
+                driftCorrections++;
+                Metrics.REPLAY_DRIFT_CORRECTIONS.increment();
             }
-            long currentTime = System.currentTimeMillis();
-            long elapsedMessageTime = messageTimestamp - lastProcessedMessageTime;
-            long targetRealTime = lastProcessedRealTime + (long)(elapsedMessageTime / speedMultiplier);
-            return Math.max(0, targetRealTime - currentTime);
         }
 
-        public void messageProcessed(long messageTimestamp) {
-            long currentTime = System.currentTimeMillis();
-            lastProcessedRealTime = currentTime;
-            lastProcessedMessageTime = messageTimestamp;
+        public long getDriftCorrections() {
+            return driftCorrections;
+        }
+
+        public double getSpeedMultiplier() {
+            return speedMultiplier;
         }
     }
-}
\ No newline at end of file
+}
@@ -7,6 +7,7 @@ import io.netty.channel.SimpleChannelInboundHandler;
 import lombok.extern.slf4j.Slf4j;
 import net.subaru.replayer.RecordingParser;
 import net.subaru.replayer.ReplayPlugin;
+import net.subaru.replayer.format.PacketFramer;
 
 import java.nio.file.Path;
 
@@ -17,6 +18,7 @@ public class ReplayClientHandler extends SimpleChannelInboundHandler<ByteBuf> {
 
     private final ReplayPlugin replayPlugin;
     private final Path recordingPath;
+    private final RewindState rewindState;
     private LoginState loginState = LoginState.CONNECT;
     private RecordingParser recordingParser;
     private RecordingReplayer recordingReplayer;
@@ -27,24 +29,31 @@ public class ReplayClientHandler extends SimpleChannelInboundHandler<ByteBuf> {
         LOGGED_IN
     }
 
-    public ReplayClientHandler(ReplayPlugin replayPlugin, Path recordingPath) {
+    public ReplayClientHandler(ReplayPlugin replayPlugin, Path recordingPath, RewindState rewindState) {
         this.replayPlugin = replayPlugin;
         this.recordingPath = recordingPath;
+        this.rewindState = rewindState;
     }
 
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception {
         log.info("Client connected: {}", ctx.channel());
-        this.recordingParser = RecordingParser.load(this.recordingPath);
-        this.recordingReplayer = new RecordingReplayer(this.recordingParser, replayPlugin, ctx.channel());
+        this.recordingParser = this.replayPlugin.getConfig().mappedLoading()
+                ? RecordingParser.map(this.recordingPath)
+                : RecordingParser.load(this.recordingPath);
+        this.recordingReplayer = new RecordingReplayer(this.recordingParser, replayPlugin, ctx.channel(), this.rewindState);
         this.replayPlugin.setRecordingReplayer(this.recordingReplayer);
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
         log.info("Client disconnected: {}", ctx.channel());
+        // Runs on the replay's event loop, so the replay has stopped and released its source before the parser closes
         if (this.recordingReplayer != null) {
-            this.recordingReplayer.stop();
+            this.recordingReplayer.close();
+        }
+        if (this.recordingParser != null) {
+            this.recordingParser.close();
         }
         this.replayPlugin.setRecordingReplayer(null);
     }
@@ -59,13 +68,12 @@ public class ReplayClientHandler extends SimpleChannelInboundHandler<ByteBuf> {
         } else if (this.loginState == LoginState.LOGGING_IN) {
             if (msg.getByte(0) == LOGIN_TYPE) {
                 log.info("Logging in, {}", replayPlugin.getIsaacKey());
-                int[] clientKey = this.recordingParser.getIsaacKey();
-                int[] serverKey = new int[4];
-                for (int i = 0; i < clientKey.length; i++) {
-                    serverKey[i] = clientKey[i] + 50;
-                }
-                this.replayPlugin.seedIsaac(serverKey);
+                this.replayPlugin.seedIsaac(PacketFramer.serverKey(this.recordingParser.getIsaacKey()));
                 this.recordingReplayer.start();
+                int resumeIndex = this.rewindState.takeResumeIndex();
+                if (resumeIndex >= 0) {
+                    this.recordingReplayer.resumeAt(resumeIndex, this.rewindState.getSpeedMultiplier());
+                }
                 this.loginState = LoginState.LOGGED_IN;
             }
         }
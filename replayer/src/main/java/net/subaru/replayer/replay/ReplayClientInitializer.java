@@ -12,6 +12,7 @@ import java.nio.file.Path;
 public class ReplayClientInitializer extends ChannelInitializer<SocketChannel> {
     private final ReplayPlugin replayPlugin;
     private Path recordingPath;
+    private RewindState rewindState;
 
     public ReplayClientInitializer(ReplayPlugin replayPlugin) {
         this.replayPlugin = replayPlugin;
@@ -23,11 +24,15 @@ public class ReplayClientInitializer extends ChannelInitializer<SocketChannel> {
             throw new RuntimeException("No recording path set");
         }
         ChannelPipeline pipeline = socketChannel.pipeline();
-        ReplayClientHandler handler = new ReplayClientHandler(this.replayPlugin, this.recordingPath);
+        if (rewindState == null) {
+            rewindState = new RewindState();
+        }
+        ReplayClientHandler handler = new ReplayClientHandler(this.replayPlugin, this.recordingPath, this.rewindState);
         pipeline.addLast("handler", handler);
     }
 
     public void setRecordingPath(Path recordingPath) {
         this.recordingPath = recordingPath;
+        this.rewindState = null;
     }
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package net.subaru.replayer.replay;
+
+/**
+ * Carries a rewind across the client reconnect: the message index the next session fast-forwards to and the speed
+ * the replay was running at, kept across client sessions of the same recording.
+ */
+class RewindState {
+    private int resumeIndex = -1;
+    private double speedMultiplier = 1.0;
+
+    synchronized void set(int resumeIndex, double speedMultiplier) {
+        this.resumeIndex = resumeIndex;
+        this.speedMultiplier = speedMultiplier;
+    }
+
+    /**
+     * Returns and clears the message index the next client session should resume at, or -1 to play from the start.
+     */
+    synchronized int takeResumeIndex() {
+        int index = resumeIndex;
+        resumeIndex = -1;
+        return index;
+    }
+
+    synchronized double getSpeedMultiplier() {
+        return speedMultiplier;
+    }
+}
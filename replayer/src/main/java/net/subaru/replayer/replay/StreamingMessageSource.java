@@ -0,0 +1,176 @@
+package net.subaru.replayer.replay;
+
+import io.netty.buffer.ByteBuf;
+import lombok.extern.slf4j.Slf4j;
+import net.subaru.replayer.RecordingParser;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Reads messages sequentially through a bounded read-ahead window filled by a background prefetcher,
+ * so memory use is capped by the window size rather than the recording size.
+ * <p>
+ * The replay reads from the channel's event loop, so it never waits on the prefetcher: a message that isn't
+ * read yet comes back as null. Repositioning hands the prefetcher a new window instead of restarting it, and a
+ * read failure is kept on the window so it surfaces to the reader once the messages before it are consumed.
+ * <p>
+ * Slices of a mapped recording are only views, so the prefetcher touches every page of a message before queueing
+ * it. The page faults happen on its thread rather than on the event loop when the message is sent.
+ */
+@Slf4j
+class StreamingMessageSource implements MessageSource {
+    private static final long OFFER_TIMEOUT_MILLIS = 10;
+    private static final int PAGE_SIZE = 4096;
+
+    private final RecordingParser recordingParser;
+    private final int windowSize;
+
+    private volatile Window window;
+    private volatile boolean closed;
+    private Thread prefetcher;
+    private int nextIndex;
+
+    public StreamingMessageSource(RecordingParser recordingParser, int windowSize) {
+        this.recordingParser = recordingParser;
+        this.windowSize = Math.max(1, windowSize);
+    }
+
+    @Override
+    public int size() {
+        return recordingParser.getMessageCount();
+    }
+
+    @Override
+    public long getTimeNanos(int index) {
+        return recordingParser.getMessageTimeNanos(index);
+    }
+
+    @Override
+    public ByteBuf retainedData(int index) {
+        Window current = window;
+        if (current == null || index != nextIndex) {
+            if (current != null) {
+                log.info("Repositioning read-ahead from {} to {}", nextIndex, index);
+            }
+            current = reposition(index);
+        }
+
+        ByteBuf data = current.messages.poll();
+        if (data != null) {
+            nextIndex++;
+            return data;
+        }
+        if (current.failure != null && current.messages.isEmpty()) {
+            throw new IllegalStateException("Couldn't read message " + index, current.failure);
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Window current = window;
+        window = null;
+        if (current != null) {
+            current.release();
+        }
+        if (prefetcher != null) {
+            LockSupport.unpark(prefetcher);
+        }
+    }
+
+    private Window reposition(int index) {
+        Window previous = window;
+        Window next = new Window(index, windowSize);
+        window = next;
+        nextIndex = index;
+        if (previous != null) {
+            previous.release();
+        }
+
+        // Started on first use, a replay that sends from file regions never reads through here
+        if (prefetcher == null) {
+            prefetcher = new Thread(this::prefetch, "replay-prefetch");
+            prefetcher.setDaemon(true);
+            prefetcher.start();
+        } else {
+            LockSupport.unpark(prefetcher);
+        }
+        return next;
+    }
+
+    private void prefetch() {
+        while (!closed) {
+            Window current = window;
+            if (current == null || current.failure != null || current.position >= recordingParser.getMessageCount()) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(OFFER_TIMEOUT_MILLIS));
+                continue;
+            }
+
+            ByteBuf data = null;
+            try {
+                data = recordingParser.sliceMessage(current.position).retain();
+                touchPages(data);
+            } catch (Throwable t) {
+                if (data != null) {
+                    data.release();
+                }
+                log.error("Read-ahead failed at message {}", current.position, t);
+                current.failure = t;
+                continue;
+            }
+
+            try {
+                while (!current.messages.offer(data, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (window != current) {
+                        data.release();
+                        data = null;
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                data.release();
+                return;
+            }
+            if (data != null) {
+                current.position++;
+            }
+            if (window != current) {
+                // Repositioned while this message went in, the reader has already dropped the old window
+                current.release();
+            }
+        }
+    }
+
+    private static void touchPages(ByteBuf data) {
+        int end = data.writerIndex();
+        for (int i = data.readerIndex(); i < end; i += PAGE_SIZE) {
+            data.getByte(i);
+        }
+        if (end > data.readerIndex()) {
+            data.getByte(end - 1);
+        }
+    }
+
+    private static final class Window {
+        private final BlockingQueue<ByteBuf> messages;
+        // Only advanced by the prefetcher
+        private int position;
+        private volatile Throwable failure;
+
+        private Window(int position, int size) {
+            this.messages = new ArrayBlockingQueue<>(size);
+            this.position = position;
+        }
+
+        private void release() {
+            ByteBuf data;
+            while ((data = messages.poll()) != null) {
+                data.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package net.subaru.replayer.replay;
+
+import net.subaru.replayer.metrics.Histogram;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * How closely a replay followed the recording. Every scheduled send records how late it went out against its
+ * deadline on the speed-scaled timeline, separately for each speed the replay ran at. Sends later than the
+ * timing tolerance are stalls: the timeline was shifted at that point, so they are listed with the message
+ * they held up. Only used from the channel's event loop.
+ */
+class TimingReport {
+    private static final int STALLS_KEPT = 10;
+
+    private final long stallThresholdNanos;
+    private final List<SpeedStats> speeds = new ArrayList<>();
+    private SpeedStats current;
+
+    TimingReport(long stallThresholdNanos) {
+        this.stallThresholdNanos = stallThresholdNanos;
+    }
+
+    void record(double speedMultiplier, int messageIndex, long latenessNanos) {
+        if (current == null || current.speedMultiplier != speedMultiplier) {
+            current = statsFor(speedMultiplier);
+        }
+
+        current.lateness.record(latenessNanos);
+        if (latenessNanos > stallThresholdNanos) {
+            current.stall(messageIndex, latenessNanos);
+        }
+    }
+
+    private SpeedStats statsFor(double speedMultiplier) {
+        for (SpeedStats stats : speeds) {
+            if (stats.speedMultiplier == speedMultiplier) {
+                return stats;
+            }
+        }
+        SpeedStats stats = new SpeedStats(speedMultiplier);
+        speeds.add(stats);
+        return stats;
+    }
+
+    String format() {
+        StringBuilder report = new StringBuilder("Replay timing report");
+        if (speeds.isEmpty()) {
+            return report.append(": no messages were sent on schedule").toString();
+        }
+
+        for (SpeedStats stats : speeds) {
+            Histogram lateness = stats.lateness;
+            report.append(String.format("%n%.2fx: %d messages, lateness mean=%s p50=%s p90=%s p99=%s p99.9=%s max=%s",
+                    stats.speedMultiplier, lateness.getCount(), millis(lateness.getMean()),
+                    millis(lateness.getPercentile(50)), millis(lateness.getPercentile(90)),
+                    millis(lateness.getPercentile(99)), millis(lateness.getPercentile(99.9)),
+                    millis(lateness.getMax())));
+            report.append(String.format("%n  %d stalls over %s, %s in total", stats.stallCount,
+                    millis(stallThresholdNanos), millis(stats.stallNanos)));
+            stats.keptStallsInOrder().forEach(i -> report.append(String.format("%n  message %d held up %s",
+                    stats.stallIndexes[i], millis(stats.stallLengths[i]))));
+        }
+        return report.toString();
+    }
+
+    private static String millis(double nanos) {
+        return String.format("%.3f ms", nanos / TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    private static final class SpeedStats {
+        private final double speedMultiplier;
+        private final Histogram lateness = new Histogram();
+        private long stallCount;
+        private long stallNanos;
+        // The longest stalls, unordered
+        private final int[] stallIndexes = new int[STALLS_KEPT];
+        private final long[] stallLengths = new long[STALLS_KEPT];
+        private int keptStalls;
+
+        private SpeedStats(double speedMultiplier) {
+            this.speedMultiplier = speedMultiplier;
+        }
+
+        private IntStream keptStallsInOrder() {
+            return IntStream.range(0, keptStalls).boxed()
+                    .sorted(Comparator.comparingInt(i -> stallIndexes[i]))
+                    .mapToInt(Integer::intValue);
+        }
+
+        private void stall(int messageIndex, long latenessNanos) {
+            stallCount++;
+            stallNanos += latenessNanos;
+
+            int slot = keptStalls;
+            if (keptStalls == STALLS_KEPT) {
+                slot = 0;
+                for (int i = 1; i < STALLS_KEPT; i++) {
+                    if (stallLengths[i] < stallLengths[slot]) {
+                        slot = i;
+                    }
+                }
+                if (stallLengths[slot] >= latenessNanos) {
+                    return;
+                }
+            } else {
+                keptStalls++;
+            }
+            stallIndexes[slot] = messageIndex;
+            stallLengths[slot] = latenessNanos;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package net.subaru.replayer.trace;
+
+public enum TraceCategory {
+    REPLAY("replay"),
+    RECORD("record"),
+    PROXY("proxy"),
+    PACKETS("packets");
+
+    private final String key;
+
+    TraceCategory(String key) {
+        this.key = key;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public static TraceCategory forKey(String key) {
+        for (TraceCategory category : values()) {
+            if (category.key.equalsIgnoreCase(key)) {
+                return category;
+            }
+        }
+        return null;
+    }
+}
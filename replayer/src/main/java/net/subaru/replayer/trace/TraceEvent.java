@@ -0,0 +1,33 @@
+package net.subaru.replayer.trace;
+
+import lombok.Getter;
+import org.slf4j.helpers.MessageFormatter;
+
+/**
+ * A recorded event. The format and arguments are kept as they were passed and only turned into text when the
+ * ring is dumped.
+ */
+@Getter
+public class TraceEvent {
+    private final long sequence;
+    private final long timeNanos;
+    private final String thread;
+    private final TraceCategory category;
+    private final TraceLevel level;
+    private final String format;
+    private final Object[] arguments;
+
+    TraceEvent(long sequence, TraceCategory category, TraceLevel level, String format, Object[] arguments) {
+        this.sequence = sequence;
+        this.timeNanos = System.nanoTime();
+        this.thread = Thread.currentThread().getName();
+        this.category = category;
+        this.level = level;
+        this.format = format;
+        this.arguments = arguments;
+    }
+
+    public String getMessage() {
+        return MessageFormatter.arrayFormat(this.format, this.arguments).getMessage();
+    }
+}
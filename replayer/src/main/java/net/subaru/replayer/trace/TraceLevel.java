@@ -0,0 +1,11 @@
+package net.subaru.replayer.trace;
+
+/**
+ * Ordered from least to most detailed, a category records events at or below its configured level.
+ */
+public enum TraceLevel {
+    OFF,
+    INFO,
+    DEBUG,
+    TRACE
+}
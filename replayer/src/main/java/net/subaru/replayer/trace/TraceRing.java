@@ -0,0 +1,49 @@
+package net.subaru.replayer.trace;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed size ring of the most recent events. Writers claim a sequence number and store into its slot without
+ * locking, so a busy writer can overwrite a slot another thread is still filling; a dump only needs to be close
+ * to the latest events, not exact.
+ */
+class TraceRing {
+    private final AtomicReferenceArray<TraceEvent> slots;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+
+    TraceRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    int capacity() {
+        return this.slots.length();
+    }
+
+    void add(TraceCategory category, TraceLevel level, String format, Object[] arguments) {
+        long next = this.sequence.getAndIncrement();
+        this.slots.lazySet((int) (next & this.mask), new TraceEvent(next, category, level, format, arguments));
+    }
+
+    List<TraceEvent> snapshot() {
+        List<TraceEvent> events = new ArrayList<>(this.slots.length());
+        for (int i = 0; i < this.slots.length(); i++) {
+            TraceEvent event = this.slots.get(i);
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        events.sort(Comparator.comparingLong(TraceEvent::getSequence));
+        return events;
+    }
+
+    long dropped() {
+        return Math.max(0, this.sequence.get() - this.slots.length());
+    }
+}
@@ -0,0 +1,160 @@
+package net.subaru.replayer.trace;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Diagnostics for the hot paths. Every category has a level and records only 1 in N of its events, and events
+ * go to an in-memory ring instead of the log, with their arguments formatted only when the ring is dumped. A
+ * category that is off costs a field read and a compare per event.
+ * <p>
+ * Categories are configured with a spec such as {@code replay=trace/100,proxy=debug}, which records every
+ * hundredth replay event up to trace detail and every proxy event up to debug.
+ */
+@Slf4j
+public final class Tracer {
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final int CATEGORIES = TraceCategory.values().length;
+
+    private static volatile Settings settings = new Settings(new TraceLevel[CATEGORIES], new int[CATEGORIES]);
+    private static volatile TraceRing ring = new TraceRing(DEFAULT_CAPACITY);
+    private static final AtomicLongArray samples = new AtomicLongArray(CATEGORIES);
+
+    private Tracer() {
+    }
+
+    public static void configure(String spec, int capacity) {
+        TraceLevel[] levels = new TraceLevel[CATEGORIES];
+        int[] sampleEvery = new int[CATEGORIES];
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+
+            try {
+                int equals = entry.indexOf('=');
+                int slash = entry.indexOf('/');
+                TraceCategory category = TraceCategory.forKey(entry.substring(0, equals).trim());
+                if (category == null) {
+                    log.warn("Unknown trace category in {}", entry);
+                    continue;
+                }
+                String level = slash < 0 ? entry.substring(equals + 1) : entry.substring(equals + 1, slash);
+                levels[category.ordinal()] = TraceLevel.valueOf(level.trim().toUpperCase());
+                sampleEvery[category.ordinal()] = slash < 0 ? 1 : Integer.parseInt(entry.substring(slash + 1).trim());
+            } catch (RuntimeException e) {
+                log.warn("Invalid trace setting {}", entry);
+            }
+        }
+
+        settings = new Settings(levels, sampleEvery);
+        if (capacity > 0 && capacity != ring.capacity()) {
+            ring = new TraceRing(capacity);
+        }
+    }
+
+    public static boolean isEnabled(TraceCategory category, TraceLevel level) {
+        TraceLevel enabled = settings.levels[category.ordinal()];
+        return enabled != null && level.compareTo(enabled) <= 0;
+    }
+
+    /**
+     * Returns whether an event should be recorded, counting it towards the category's sampling.
+     */
+    public static boolean sample(TraceCategory category, TraceLevel level) {
+        if (!isEnabled(category, level)) {
+            return false;
+        }
+        int every = settings.sampleEvery[category.ordinal()];
+        return every <= 1 || samples.getAndIncrement(category.ordinal()) % every == 0;
+    }
+
+    /**
+     * Records an event without checking the level, for callers that already called {@link #sample}.
+     */
+    public static void record(TraceCategory category, TraceLevel level, String format, Object... arguments) {
+        ring.add(category, level, format, arguments);
+    }
+
+    public static void trace(TraceCategory category, TraceLevel level, String format) {
+        if (sample(category, level)) {
+            record(category, level, format);
+        }
+    }
+
+    public static void trace(TraceCategory category, TraceLevel level, String format, long argument) {
+        if (sample(category, level)) {
+            record(category, level, format, argument);
+        }
+    }
+
+    public static void trace(TraceCategory category, TraceLevel level, String format, long first, long second) {
+        if (sample(category, level)) {
+            record(category, level, format, first, second);
+        }
+    }
+
+    public static void trace(TraceCategory category, TraceLevel level, String format, Object argument) {
+        if (sample(category, level)) {
+            record(category, level, format, argument);
+        }
+    }
+
+    /**
+     * Captures the first bytes of the buffer for an event argument. Buffers are usually released before a dump,
+     * so the bytes are copied, but only turned into hex when the event is formatted.
+     */
+    public static Object hex(ByteBuf buffer, int maxBytes) {
+        byte[] bytes = new byte[Math.min(maxBytes, buffer.readableBytes())];
+        buffer.getBytes(buffer.readerIndex(), bytes);
+        return new Object() {
+            @Override
+            public String toString() {
+                return ByteBufUtil.hexDump(bytes);
+            }
+        };
+    }
+
+    /**
+     * Writes the events currently in the ring to the file, oldest first, and returns how many were written.
+     */
+    public static int dump(Path file) throws IOException {
+        TraceRing current = ring;
+        List<TraceEvent> events = current.snapshot();
+        long start = events.isEmpty() ? 0 : events.get(0).getTimeNanos();
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            if (current.dropped() > 0) {
+                writer.write("# " + current.dropped() + " older events were overwritten");
+                writer.newLine();
+            }
+            for (TraceEvent event : events) {
+                double millis = (event.getTimeNanos() - start) / (double) TimeUnit.MILLISECONDS.toNanos(1);
+                writer.write(String.format("%12.3f ms [%s] %s %s %s", millis, event.getThread(),
+                        event.getCategory().getKey(), event.getLevel(), event.getMessage()));
+                writer.newLine();
+            }
+        }
+        return events.size();
+    }
+
+    private static final class Settings {
+        private final TraceLevel[] levels;
+        private final int[] sampleEvery;
+
+        private Settings(TraceLevel[] levels, int[] sampleEvery) {
+            this.levels = levels;
+            this.sampleEvery = sampleEvery;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.subaru.replayer.FsyncPolicy;
+import net.subaru.replayer.RecordingWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BlockRecordingDataTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsAcrossBlockBoundaries() throws Exception {
+        Path path = this.folder.newFolder().toPath();
+        byte[] written = record(path);
+
+        ByteBuf index = Unpooled.wrappedBuffer(Files.readAllBytes(path.resolve(BlockRecordingData.INDEX_FILE_NAME)));
+        int blocks = index.readableBytes() / BlockRecordingData.INDEX_STRIDE;
+        // More blocks than the cache holds, so earlier blocks are evicted and decoded again
+        assertTrue(blocks > 16);
+
+        try (BlockRecordingData data = BlockRecordingData.open(path)) {
+            assertEquals(written.length, data.size());
+
+            long boundary = 0;
+            for (int i = 0; i < blocks - 1; i++) {
+                boundary += index.getInt(i * BlockRecordingData.INDEX_STRIDE + 12);
+                long offset = boundary - 3;
+
+                byte[] bytes = new byte[7];
+                data.getBytes(offset, bytes, 0, bytes.length);
+                assertArrayEquals(range(written, offset, bytes.length), bytes);
+
+                ByteBuf spanning = data.slice(offset, 7);
+                byte[] sliced = new byte[7];
+                spanning.getBytes(0, sliced);
+                assertArrayEquals(range(written, offset, sliced.length), sliced);
+            }
+
+            // One read covering every block
+            byte[] all = new byte[written.length];
+            data.getBytes(0, all, 0, all.length);
+            assertArrayEquals(written, all);
+        }
+    }
+
+    private static byte[] record(Path path) throws Exception {
+        Random random = new Random(7);
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        try (RecordingWriter writer = new RecordingWriter(path, FsyncPolicy.ON_CLOSE, 0, 0, 4096, null,
+                BlockCodec.DEFLATE)) {
+            writer.writeIsaac(new int[4]);
+            while (written.size() < 1_500_000) {
+                byte[] message = new byte[1 + random.nextInt(5000)];
+                // Compressible but not constant
+                for (int i = 0; i < message.length; i++) {
+                    message[i] = (byte) (random.nextInt(16) + i / 64);
+                }
+                writer.write(message);
+                written.write(message);
+            }
+        }
+        return written.toByteArray();
+    }
+
+    private static byte[] range(byte[] bytes, long offset, int length) {
+        byte[] range = new byte[length];
+        System.arraycopy(bytes, (int) offset, range, 0, length);
+        return range;
+    }
+}
@@ -0,0 +1,113 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompactMessageMetaTest {
+    private static final int COUNT = CompactMessageMeta.SYNC_INTERVAL * 3 + 17;
+
+    @Test
+    public void roundTripsMillisAcrossSyncPoints() {
+        long[] timestamps = new long[COUNT];
+        int[] lengths = new int[COUNT];
+        fill(timestamps, lengths, 1_600_000_000_000L);
+
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeInt(CompactMessageMeta.MAGIC);
+        buffer.writeByte(CompactMessageMeta.VERSION_MILLIS);
+        encode(buffer, timestamps, lengths);
+
+        MessageMeta meta = MessageMeta.wrap(buffer);
+        assertTrue(meta instanceof CompactMessageMeta);
+        assertEquals(COUNT, meta.getMessageCount());
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(timestamps[i], meta.getTimestamp(i));
+            assertEquals(lengths[i], meta.getLength(i));
+        }
+        // Backwards and far jumps reposition the cursor at a sync point
+        for (int i = COUNT - 1; i >= 0; i -= 97) {
+            assertEquals(timestamps[i], meta.getTimestamp(i));
+            assertEquals(lengths[i], meta.getLength(i));
+        }
+    }
+
+    @Test
+    public void roundTripsNanosAgainstEpoch() {
+        long epochMillis = 1_600_000_000_000L;
+        long[] timestamps = new long[COUNT];
+        int[] lengths = new int[COUNT];
+        fill(timestamps, lengths, 0);
+        for (int i = 0; i < COUNT; i++) {
+            timestamps[i] = timestamps[i] * 1000 + i;
+        }
+
+        ByteBuf buffer = Unpooled.buffer();
+        CompactMessageMeta.Encoder.writeHeader(buffer, epochMillis);
+        encode(buffer, timestamps, lengths);
+
+        MessageMeta meta = MessageMeta.wrap(buffer);
+        assertEquals(COUNT, meta.getMessageCount());
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(timestamps[i], meta.getTimestampNanos(i));
+            assertEquals(epochMillis + timestamps[i] / 1_000_000, meta.getTimestamp(i));
+            assertEquals(lengths[i], meta.getLength(i));
+        }
+    }
+
+    @Test
+    public void dropsTornTrailingEntry() {
+        long[] timestamps = {1000, 900, 5000};
+        int[] lengths = {1, 300, 70000};
+
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeInt(CompactMessageMeta.MAGIC);
+        buffer.writeByte(CompactMessageMeta.VERSION_MILLIS);
+        encode(buffer, timestamps, lengths);
+        // The last length is a three byte varint, cut it after the first
+        buffer.writerIndex(buffer.writerIndex() - 2);
+
+        MessageMeta meta = MessageMeta.wrap(buffer);
+        assertEquals(2, meta.getMessageCount());
+        assertEquals(900, meta.getTimestamp(1));
+        assertEquals(300, meta.getLength(1));
+    }
+
+    @Test
+    public void detectsFixedLayout() {
+        ByteBuf buffer = Unpooled.buffer();
+        for (int i = 0; i < 3; i++) {
+            buffer.writeLong(1_600_000_000_000L + i * 25);
+            buffer.writeInt(10 + i);
+        }
+
+        MessageMeta meta = MessageMeta.wrap(buffer);
+        assertTrue(meta instanceof FixedMessageMeta);
+        assertEquals(3, meta.getMessageCount());
+        assertEquals(1_600_000_000_050L, meta.getTimestamp(2));
+        assertEquals(12, meta.getLength(2));
+    }
+
+    private static void fill(long[] timestamps, int[] lengths, long start) {
+        Random random = new Random(42);
+        long timestamp = start;
+        for (int i = 0; i < timestamps.length; i++) {
+            // Occasionally step backwards to exercise negative zigzag deltas
+            timestamp += random.nextInt(10) == 0 ? -random.nextInt(1000) : random.nextInt(100_000);
+            timestamps[i] = timestamp;
+            lengths[i] = random.nextInt(i % 5 == 0 ? 1 << 20 : 128);
+        }
+    }
+
+    private static void encode(ByteBuf buffer, long[] timestamps, int[] lengths) {
+        CompactMessageMeta.Encoder encoder = new CompactMessageMeta.Encoder();
+        for (int i = 0; i < timestamps.length; i++) {
+            encoder.encode(buffer, timestamps[i], lengths[i]);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PacketFramerTest {
+    private static final int[] CLIENT_KEY = {11, 22, 33, 44};
+    private static final int[] PACKET_SIZES = new int[300];
+
+    static {
+        PACKET_SIZES[5] = 3;
+        PACKET_SIZES[10] = -1;
+        PACKET_SIZES[200] = -2;
+        PACKET_SIZES[7] = -3;
+    }
+
+    @Test
+    public void matchesReferenceKeystream() {
+        // First and last rows of the first block in Bob Jenkins' randvect.txt, an all zero seed. The client takes
+        // values from the end of each block and its first block comes from seeding, which randvect.txt doesn't print.
+        int[] first = {0xf650e4c8, 0xe448e96d, 0x98db2fb4, 0xf5fad54f, 0x433f1afb, 0xedec154a, 0xd8370487, 0x46ca4f9a};
+        int[] last = {0xb8f6fd4a, 0x6a158d10, 0x01913fd3, 0xaf7d1fb8, 0x0b5e435f, 0x90c10757, 0x6554abda, 0x7a68710f};
+
+        IsaacCipher cipher = new IsaacCipher(new int[4]);
+        int[] stream = new int[512];
+        for (int i = 0; i < stream.length; i++) {
+            stream[i] = cipher.nextInt();
+        }
+        for (int i = 0; i < 8; i++) {
+            assertEquals(last[7 - i], stream[256 + i]);
+            assertEquals(first[7 - i], stream[504 + i]);
+        }
+    }
+
+    @Test
+    public void derivesServerKey() {
+        assertArrayEquals(new int[]{61, 72, 83, 94}, PacketFramer.serverKey(CLIENT_KEY));
+    }
+
+    @Test
+    public void framesFixedAndVariablePackets() {
+        IsaacCipher cipher = new IsaacCipher(PacketFramer.serverKey(CLIENT_KEY));
+        ByteBuf stream = Unpooled.buffer();
+        writeOpcode(stream, cipher, 5);
+        stream.writeBytes(new byte[]{1, 2, 3});
+        writeOpcode(stream, cipher, 10);
+        stream.writeByte(2);
+        stream.writeShort(0x7F7F);
+        writeOpcode(stream, cipher, 200);
+        stream.writeShort(300);
+        stream.writeZero(300);
+        writeOpcode(stream, cipher, 1);
+
+        List<long[]> packets = new ArrayList<>();
+        PacketFramer framer = new PacketFramer(PacketFramer.serverKey(CLIENT_KEY), PACKET_SIZES, 100,
+                (offset, length, opcode) -> packets.add(new long[]{offset, length, opcode}));
+        stream.forEachByte(framer);
+
+        assertEquals(4, packets.size());
+        assertArrayEquals(new long[]{100, 4, 5}, packets.get(0));
+        assertArrayEquals(new long[]{104, 4, 10}, packets.get(1));
+        assertArrayEquals(new long[]{108, 304, 200}, packets.get(2));
+        assertArrayEquals(new long[]{412, 1, 1}, packets.get(3));
+        assertEquals(413, framer.getBoundary());
+        // Opcode 200 takes two keystream values
+        assertEquals(5, framer.getBoundaryIsaacConsumed());
+        assertFalse(framer.isLost());
+    }
+
+    @Test
+    public void resumesAtBoundary() {
+        IsaacCipher cipher = new IsaacCipher(PacketFramer.serverKey(CLIENT_KEY));
+        ByteBuf stream = Unpooled.buffer();
+        for (int i = 0; i < 300; i++) {
+            writeOpcode(stream, cipher, 5);
+            stream.writeMedium(i);
+        }
+
+        List<long[]> packets = new ArrayList<>();
+        PacketFramer framer = new PacketFramer(PacketFramer.serverKey(CLIENT_KEY), PACKET_SIZES, 0,
+                (offset, length, opcode) -> packets.add(new long[]{offset, length, opcode}));
+        // Stop partway through a packet
+        stream.forEachByte(0, 1002, framer);
+        assertEquals(250, packets.size());
+        assertEquals(1000, framer.getBoundary());
+
+        PacketFramer resumed = new PacketFramer(PacketFramer.serverKey(CLIENT_KEY), PACKET_SIZES,
+                framer.getBoundary(), framer.getBoundaryIsaacConsumed(),
+                (offset, length, opcode) -> packets.add(new long[]{offset, length, opcode}));
+        stream.forEachByte(1000, stream.readableBytes() - 1000, resumed);
+        assertEquals(300, packets.size());
+        for (int i = 0; i < packets.size(); i++) {
+            assertArrayEquals(new long[]{i * 4, 4, 5}, packets.get(i));
+        }
+    }
+
+    @Test
+    public void stopsOnUnknownOpcode() {
+        IsaacCipher cipher = new IsaacCipher(PacketFramer.serverKey(CLIENT_KEY));
+        ByteBuf stream = Unpooled.buffer();
+        writeOpcode(stream, cipher, 7);
+        stream.writeZero(10);
+
+        PacketFramer framer = new PacketFramer(PacketFramer.serverKey(CLIENT_KEY), PACKET_SIZES, 0,
+                (offset, length, opcode) -> {
+                    throw new AssertionError("Unexpected packet " + opcode);
+                });
+        assertEquals(1, stream.forEachByte(framer));
+        assertTrue(framer.isLost());
+    }
+
+    private static void writeOpcode(ByteBuf stream, IsaacCipher cipher, int opcode) {
+        if (opcode >= 128) {
+            stream.writeByte(((opcode >> 8) + 128 + cipher.nextInt()) & 0xFF);
+        }
+        stream.writeByte((opcode + cipher.nextInt()) & 0xFF);
+    }
+}
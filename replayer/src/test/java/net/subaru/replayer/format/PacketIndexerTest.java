@@ -0,0 +1,154 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import net.subaru.replayer.FsyncPolicy;
+import net.subaru.replayer.RecordingWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PacketIndexerTest {
+    private static final int[] CLIENT_KEY = {5, 6, 7, 8};
+    private static final int[] PACKET_SIZES = new int[20];
+    private static final int PACKETS = 3000;
+    private static final int CHECKPOINT = 1234;
+
+    static {
+        PACKET_SIZES[5] = 3;
+        PACKET_SIZES[10] = -1;
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void indexesEveryPacket() throws Exception {
+        Path path = this.folder.newFolder().toPath();
+        record(path);
+
+        PacketIndexer.Progress progress = new PacketIndexer(path, PACKET_SIZES).index();
+        assertEquals(PACKETS, progress.getPackets());
+        assertFalse(progress.isLost());
+        assertFalse(Files.exists(path.resolve(PacketIndexer.STAGING_FILE_NAME)));
+
+        PacketIndex index = PacketIndex.map(path);
+        assertEquals(PACKETS, index.getPacketCount());
+        long offset = index.getOffset(0);
+        for (int i = 0; i < PACKETS; i++) {
+            assertEquals(offset, index.getOffset(i));
+            assertEquals(opcode(i), index.getOpcode(i));
+            assertEquals(opcode(i) == 5 ? 4 : 2 + i % 50, index.getLength(i));
+            offset += index.getLength(i);
+        }
+    }
+
+    @Test
+    public void resumesFromCheckpoint() throws Exception {
+        Path path = this.folder.newFolder().toPath();
+        record(path);
+        new PacketIndexer(path, PACKET_SIZES).index();
+        Path packets = path.resolve(PacketIndex.FILE_NAME);
+        byte[] expected = Files.readAllBytes(packets);
+
+        // A run stopped after its checkpoint, with a few entries past it already staged
+        Path staging = path.resolve(PacketIndexer.STAGING_FILE_NAME);
+        byte[] staged = Arrays.copyOf(expected, (CHECKPOINT + 3) * PacketIndex.STRIDE);
+        // Entries before the checkpoint are kept as staged, so a marked timestamp tells a resume from a restart
+        staged[PacketIndex.STRIDE - 1] ^= 1;
+        expected[PacketIndex.STRIDE - 1] ^= 1;
+        Files.write(staging, staged);
+        checkpoint(path);
+        Files.delete(packets);
+
+        PacketIndexer.Progress progress = new PacketIndexer(path, PACKET_SIZES).index();
+        assertEquals(PACKETS, progress.getPackets());
+        assertArrayEquals(expected, Files.readAllBytes(packets));
+        assertFalse(Files.exists(staging));
+    }
+
+    @Test
+    public void restartsWhenStagedEntriesAreGone() throws Exception {
+        Path path = this.folder.newFolder().toPath();
+        record(path);
+        new PacketIndexer(path, PACKET_SIZES).index();
+        Path packets = path.resolve(PacketIndex.FILE_NAME);
+        byte[] expected = Files.readAllBytes(packets);
+
+        checkpoint(path);
+        Files.delete(packets);
+
+        new PacketIndexer(path, PACKET_SIZES).index();
+        assertArrayEquals(expected, Files.readAllBytes(packets));
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesRecordingAlreadyBeingIndexed() throws Exception {
+        Path path = this.folder.newFolder().toPath();
+        record(path);
+
+        try (FileChannel channel = FileChannel.open(path.resolve(PacketIndexer.LOCK_FILE_NAME),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock ignored = channel.lock()) {
+            new PacketIndexer(path, PACKET_SIZES).index();
+        }
+    }
+
+    private static void record(Path path) throws Exception {
+        IsaacCipher cipher = new IsaacCipher(PacketFramer.serverKey(CLIENT_KEY));
+        ByteBuf stream = Unpooled.buffer();
+        for (int i = 0; i < PACKETS; i++) {
+            stream.writeByte((opcode(i) + cipher.nextInt()) & 0xFF);
+            if (opcode(i) == 5) {
+                stream.writeMedium(i);
+            } else {
+                stream.writeByte(i % 50);
+                stream.writeZero(i % 50);
+            }
+        }
+
+        try (RecordingWriter writer = new RecordingWriter(path, FsyncPolicy.ON_CLOSE, 0, 0, 4096, null,
+                BlockCodec.NONE)) {
+            writer.writeIsaac(CLIENT_KEY);
+            writer.write(new byte[]{2});
+            writer.write(new byte[8]);
+            // Messages don't line up with packets
+            int[] cuts = {1, 7, 300, 2, 45};
+            for (int i = 0; stream.isReadable(); i++) {
+                writer.write(stream.readRetainedSlice(Math.min(cuts[i % cuts.length], stream.readableBytes())));
+            }
+        }
+    }
+
+    private static int opcode(int packet) {
+        return packet % 3 == 0 ? 10 : 5;
+    }
+
+    /**
+     * Writes the checkpoint a run leaves after {@link #CHECKPOINT} packets, taking the position from the complete
+     * index. Every opcode takes one keystream value.
+     */
+    private static void checkpoint(Path path) throws Exception {
+        PacketIndex index = PacketIndex.map(path);
+        try (DataOutputStream output = new DataOutputStream(
+                Files.newOutputStream(path.resolve(PacketIndexer.PROGRESS_FILE_NAME)))) {
+            output.writeLong(index.getOffset(CHECKPOINT));
+            output.writeLong(CHECKPOINT);
+            output.writeLong(CHECKPOINT);
+            output.writeBoolean(false);
+        }
+    }
+}
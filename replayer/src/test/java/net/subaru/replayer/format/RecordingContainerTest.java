@@ -0,0 +1,100 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RecordingContainerTest {
+    private static final int[] ISAAC_KEY = {1, -2, 3, Integer.MAX_VALUE};
+    private static final long START_TIME = 1_600_000_000_000L;
+    private static final byte[] DATA = "recorded server bytes".getBytes();
+    private static final byte[] META = {1, 2, 3, 4, 5};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsFooterWrittenOnClose() throws Exception {
+        Path path = this.folder.getRoot().toPath().resolve("closed" + RecordingContainer.EXTENSION);
+        try (FileChannel channel = create(path)) {
+            RecordingContainer.writeFooter(channel, stageMeta(path), null, null);
+        }
+        Files.delete(RecordingContainer.stagedSection(path, "messages_meta.dat"));
+
+        assertContents(path);
+    }
+
+    @Test
+    public void recoversRecordingThatWasNotClosed() throws Exception {
+        Path path = this.folder.getRoot().toPath().resolve("crashed" + RecordingContainer.EXTENSION);
+        create(path).close();
+        Path meta = stageMeta(path);
+        long size = Files.size(path);
+
+        assertContents(path);
+        // The footer is now part of the file and the staged section is gone
+        assertTrue(Files.size(path) > size);
+        assertFalse(Files.exists(meta));
+        assertContents(path);
+    }
+
+    @Test
+    public void opensRecordingHeldByWriterReadOnly() throws Exception {
+        Path path = this.folder.getRoot().toPath().resolve("live" + RecordingContainer.EXTENSION);
+        try (FileChannel channel = create(path)) {
+            RecordingContainer.lockForWriting(channel);
+            Path meta = stageMeta(path);
+            long size = Files.size(path);
+
+            assertContents(path);
+            assertEquals(size, Files.size(path));
+            assertTrue(Files.exists(meta));
+        }
+    }
+
+    private static FileChannel create(Path path) throws Exception {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        RecordingContainer.writeHeader(channel, BlockCodec.NONE, START_TIME);
+        RecordingContainer.writeIsaacKey(channel, ISAAC_KEY);
+        channel.write(ByteBuffer.wrap(DATA));
+        return channel;
+    }
+
+    private static Path stageMeta(Path path) throws Exception {
+        return Files.write(RecordingContainer.stagedSection(path, "messages_meta.dat"), META);
+    }
+
+    private static void assertContents(Path path) throws Exception {
+        RecordingContainer container = RecordingContainer.open(path);
+        try {
+            assertArrayEquals(ISAAC_KEY, container.getIsaacKey());
+            assertEquals(START_TIME, container.getStartTimeMillis());
+            assertEquals(BlockCodec.NONE, container.getCodec());
+            assertEquals(DATA.length, container.getData().size());
+            byte[] data = new byte[DATA.length];
+            container.getData().getBytes(0, data, 0, data.length);
+            assertArrayEquals(DATA, data);
+            ByteBuf meta = container.getMessageMeta();
+            assertArrayEquals(META, ByteBufUtil.getBytes(meta));
+            assertNull(container.getPacketIndex());
+        } finally {
+            container.getData().close();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package net.subaru.replayer.format;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SegmentedRecordingDataTest {
+    private static final int CHUNK = 1 << 20;
+    private static final long SEGMENT_SIZE = 1L << SegmentedRecordingData.SEGMENT_SHIFT;
+
+    @Test
+    public void readsAcrossSegmentBoundaryOfLoadedData() {
+        // Every chunk is a view of the same megabyte, so the data is past 1 GB without allocating it
+        ByteBuf chunk = Unpooled.buffer(CHUNK);
+        for (int i = 0; i < CHUNK; i++) {
+            chunk.writeByte(i % 251);
+        }
+        int chunks = (int) (SEGMENT_SIZE / CHUNK) + 1;
+        CompositeByteBuf loaded = Unpooled.compositeBuffer(chunks);
+        for (int i = 0; i < chunks; i++) {
+            loaded.addComponent(true, chunk.retainedSlice());
+        }
+
+        SegmentedRecordingData data = SegmentedRecordingData.wrap(loaded);
+        assertEquals((long) chunks * CHUNK, data.size());
+
+        long offset = SEGMENT_SIZE - 5;
+        byte[] bytes = new byte[10];
+        data.getBytes(offset, bytes, 0, bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            assertEquals(expected(offset + i), bytes[i]);
+        }
+
+        ByteBuf spanning = data.slice(offset, 10);
+        ByteBuf after = data.slice(SEGMENT_SIZE + 7, 4);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(expected(offset + i), spanning.getByte(i));
+        }
+        for (int i = 0; i < 4; i++) {
+            assertEquals(expected(SEGMENT_SIZE + 7 + i), after.getByte(i));
+        }
+    }
+
+    private static byte expected(long offset) {
+        return (byte) (offset % CHUNK % 251);
+    }
+}